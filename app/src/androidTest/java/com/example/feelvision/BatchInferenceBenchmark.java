@@ -0,0 +1,99 @@
+package com.example.feelvision;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.tensorflow.lite.Delegate;
+import org.tensorflow.lite.Interpreter;
+import org.tensorflow.lite.support.common.FileUtil;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.util.Locale;
+
+// Per face latency of the emotion model for batches of 1, 2, 4 and 8 faces, against as many
+// runs of a single face, on the device the test runs on:
+//   ./gradlew :app:connectedAndroidTest -Pandroid.testInstrumentationRunnerArguments.class=com.example.feelvision.BatchInferenceBenchmark
+// Results are logged with the tag BatchInferenceBenchmark.
+@RunWith(AndroidJUnit4.class)
+public class BatchInferenceBenchmark {
+    private static final String TAG = "BatchInferenceBenchmark";
+    private static final String MODEL_FILE = "model_v4.tflite";
+    private static final int INPUT_SIZE = 48;
+    private static final int NUM_CLASSES = 7;
+    private static final int WARM_UP_RUNS = 5;
+    private static final int RUNS = 50;
+    private static final int[] BATCH_SIZES = {1, 2, 4, 8};
+
+    @Test
+    public void perFaceLatency() throws IOException {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        MappedByteBuffer model = FileUtil.loadMappedFile(context, MODEL_FILE);
+        for (InterpreterBackend backend : InterpreterBackend.values()) {
+            if (!backend.isAvailable()) {
+                continue;
+            }
+            Delegate delegate = null;
+            Interpreter interpreter;
+            try {
+                delegate = backend.createDelegate();
+                interpreter = new Interpreter(model, backend.createOptions(delegate));
+            } catch (RuntimeException e) {
+                Log.i(TAG, backend + " is not usable on this device");
+                InterpreterBackend.close(delegate);
+                continue;
+            }
+            try {
+                measure(backend, interpreter);
+            } finally {
+                interpreter.close();
+                InterpreterBackend.close(delegate);
+            }
+        }
+    }
+
+    private static void measure(InterpreterBackend backend, Interpreter interpreter) {
+        InterpreterEmotionClassifier classifier = new InterpreterEmotionClassifier(interpreter);
+        TensorArena tensorArena = new TensorArena(INPUT_SIZE, classifier.getInputChannels(), NUM_CLASSES,
+                classifier.getInputSpec(), classifier.getOutputSpec());
+        double singleFaceMs = 0;
+        for (int faces : BATCH_SIZES) {
+            if (faces > 1 && !classifier.resizeInput(tensorArena.getInputShape(faces))) {
+                Log.i(TAG, backend + " cannot resize the input to " + faces + " faces");
+                return;
+            }
+            tensorArena.ensureBatchCapacity(faces);
+            double batchMs;
+            try {
+                batchMs = time(classifier, tensorArena.input(), tensorArena.outputBuffer());
+            } catch (RuntimeException e) {
+                // see FrameAnalyzer.runClassifier
+                Log.i(TAG, backend + " cannot run a batch of " + faces + " faces: " + e.getMessage());
+                return;
+            }
+            if (faces == 1) {
+                singleFaceMs = batchMs;
+            }
+            Log.i(TAG, String.format(Locale.US, "%s, %d faces: batch %.3f ms, %.3f ms per face, %d single runs %.3f ms",
+                    backend, faces, batchMs, batchMs / faces, faces, singleFaceMs * faces));
+        }
+    }
+
+    // mean latency of one run in milliseconds
+    private static double time(EmotionClassifier classifier, ByteBuffer input, ByteBuffer output) {
+        for (int i = 0; i < WARM_UP_RUNS; i++) {
+            classifier.run(input, output);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < RUNS; i++) {
+            classifier.run(input, output);
+        }
+        return (System.nanoTime() - start) / 1e6 / RUNS;
+    }
+}
@@ -0,0 +1,90 @@
+package com.example.feelvision;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opencv.android.OpenCVLoader;
+import org.opencv.android.Utils;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Locale;
+
+import static org.junit.Assert.assertTrue;
+
+// Time to turn one face ROI into the model input, through a Bitmap as the app first did and
+// through FacePreprocessor, on the device the test runs on:
+//   ./gradlew :app:connectedAndroidTest -Pandroid.testInstrumentationRunnerArguments.class=com.example.feelvision.PreprocessingBenchmark
+// Results are logged with the tag PreprocessingBenchmark.
+@RunWith(AndroidJUnit4.class)
+public class PreprocessingBenchmark {
+    private static final String TAG = "PreprocessingBenchmark";
+    private static final int INPUT_SIZE = 48;
+    private static final int NUM_CLASSES = 7;
+    private static final int WARM_UP_RUNS = 50;
+    private static final int RUNS = 500;
+    // face sizes seen in a 1280x720 frame, from far to close
+    private static final int[] FACE_SIZES = {96, 240, 480};
+
+    @Test
+    public void bitmapVersusMat() {
+        assertTrue(OpenCVLoader.initDebug());
+        Mat frame = new Mat(720, 1280, CvType.CV_8UC4);
+        Core.randu(frame, 0, 255);
+        Imgproc.GaussianBlur(frame, frame, new Size(9, 9), 0);
+        TensorArena tensorArena = new TensorArena(INPUT_SIZE, 3, NUM_CLASSES);
+        FrameOrientation frameOrientation = new FrameOrientation();
+        FacePreprocessor facePreprocessor = new FacePreprocessor(tensorArena, frameOrientation);
+
+        for (int size : FACE_SIZES) {
+            Mat roi = frame.submat(new Rect((frame.cols() - size) / 2, (frame.rows() - size) / 2, size, size));
+            for (int i = 0; i < WARM_UP_RUNS; i++) {
+                bitmapPath(roi);
+                facePreprocessor.process(roi, 0);
+            }
+            long start = System.nanoTime();
+            for (int i = 0; i < RUNS; i++) {
+                bitmapPath(roi);
+            }
+            long bitmapNanos = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int i = 0; i < RUNS; i++) {
+                facePreprocessor.process(roi, 0);
+            }
+            long matNanos = System.nanoTime() - start;
+            Log.i(TAG, String.format(Locale.US, "%dx%d face: Bitmap %.3f ms, Mat %.3f ms",
+                    size, size, bitmapNanos / 1e6 / RUNS, matNanos / 1e6 / RUNS));
+            roi.release();
+        }
+        facePreprocessor.release();
+        frameOrientation.release();
+        frame.release();
+    }
+
+    // the preprocessing of the app before FacePreprocessor, allocations included
+    private static ByteBuffer bitmapPath(Mat roi) {
+        Bitmap bitmap = Bitmap.createBitmap(roi.cols(), roi.rows(), Bitmap.Config.ARGB_8888);
+        Utils.matToBitmap(roi, bitmap);
+        Bitmap scaledBitmap = Bitmap.createScaledBitmap(bitmap, INPUT_SIZE, INPUT_SIZE, false);
+        ByteBuffer byteBuffer = ByteBuffer.allocateDirect(4 * INPUT_SIZE * INPUT_SIZE * 3);
+        byteBuffer.order(ByteOrder.nativeOrder());
+        int[] intValues = new int[INPUT_SIZE * INPUT_SIZE];
+        scaledBitmap.getPixels(intValues, 0, INPUT_SIZE, 0, 0, INPUT_SIZE, INPUT_SIZE);
+        for (int val : intValues) {
+            byteBuffer.putFloat(((val >> 16) & 0xFF) / 255.0f);
+            byteBuffer.putFloat(((val >> 8) & 0xFF) / 255.0f);
+            byteBuffer.putFloat((val & 0xFF) / 255.0f);
+        }
+        return byteBuffer;
+    }
+}
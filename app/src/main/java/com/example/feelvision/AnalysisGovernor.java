@@ -0,0 +1,179 @@
+package com.example.feelvision;
+
+// Picks how much work the analysis does per frame so that it keeps up with the camera on a
+// phone that heats up. Pure Java: the latency of every frame and the device state come in,
+// the settings to apply go out, and time is passed in so synthetic telemetry can drive it.
+//
+// The settings form a ladder of levels, 0 being the most accurate. A mode allows a range of
+// levels and sets the latency budget. The governor steps down when the smoothed latency goes
+// over the budget and back up once it stayed well under it for a while. Thermal throttling
+// and a low battery raise the best level allowed.
+public class AnalysisGovernor {
+    public enum Mode {
+        MAX_ACCURACY(0, 2, 200),
+        BALANCED(1, 4, 100),
+        BATTERY_SAVER(3, 5, 150);
+
+        private final int bestLevel;
+        private final int worstLevel;
+        private final long budgetNanos;
+
+        Mode(int bestLevel, int worstLevel, long budgetMs) {
+            this.bestLevel = bestLevel;
+            this.worstLevel = worstLevel;
+            this.budgetNanos = budgetMs * 1000000L;
+        }
+
+        public long getBudgetNanos() {
+            return budgetNanos;
+        }
+    }
+
+    // values of PowerManager.THERMAL_STATUS_*
+    public static final int THERMAL_NONE = 0;
+    public static final int THERMAL_MODERATE = 2;
+    public static final int THERMAL_SEVERE = 3;
+
+    public static final class Settings {
+        private final int redetectInterval;
+        private final int detectionWidth;
+        private final int maxFaces;
+        private final int interpreterThreads;
+
+        Settings(int redetectInterval, int detectionWidth, int maxFaces, int interpreterThreads) {
+            this.redetectInterval = redetectInterval;
+            this.detectionWidth = detectionWidth;
+            this.maxFaces = maxFaces;
+            this.interpreterThreads = interpreterThreads;
+        }
+
+        // frames between two cascade runs while faces are tracked, see FaceTracker
+        public int getRedetectInterval() {
+            return redetectInterval;
+        }
+
+        // see DetectionResolutionPolicy, FULL_RESOLUTION for no downscaling
+        public int getDetectionWidth() {
+            return detectionWidth;
+        }
+
+        public int getMaxFaces() {
+            return maxFaces;
+        }
+
+        // only the CPU and XNNPACK backends use it, the interpreter is rebuilt once it held
+        public int getInterpreterThreads() {
+            return interpreterThreads;
+        }
+
+        @Override
+        public String toString() {
+            return "redetect every " + redetectInterval + ", detection width " + detectionWidth
+                    + ", max faces " + maxFaces + ", " + interpreterThreads + " threads";
+        }
+    }
+
+    private static final Settings[] LEVELS = {
+            new Settings(1, DetectionResolutionPolicy.FULL_RESOLUTION, 8, 4),
+            new Settings(3, 480, 8, 4),
+            new Settings(5, 320, 4, 4),
+            new Settings(8, 320, 3, 2),
+            new Settings(10, 240, 2, 2),
+            new Settings(15, 240, 1, 1),
+    };
+
+    static final int LOW_BATTERY_PERCENT = 15;
+    // weight of the newest frame in the smoothed latency
+    private static final double SMOOTHING = 0.2;
+    // the latency has to stay under this part of the budget before a step up
+    private static final double STEP_UP_FRACTION = 0.6;
+    private static final long STEP_DOWN_HOLD_NANOS = 1000000000L;
+    private static final long STEP_UP_HOLD_NANOS = 5000000000L;
+
+    private Mode mode;
+    private int level;
+    private double smoothedLatencyNanos = -1;
+    private long lastChangeNanos;
+    private long underBudgetSinceNanos = -1;
+    private int thermalStatus = THERMAL_NONE;
+    private int batteryPercent = 100;
+    private boolean charging = true;
+
+    public AnalysisGovernor(Mode mode) {
+        setMode(mode);
+    }
+
+    // starts again from the best level of the mode
+    public synchronized void setMode(Mode mode) {
+        this.mode = mode;
+        level = bestAllowedLevel();
+        smoothedLatencyNanos = -1;
+        underBudgetSinceNanos = -1;
+    }
+
+    public synchronized Mode getMode() {
+        return mode;
+    }
+
+    // thermalStatus is one of PowerManager.THERMAL_STATUS_*, THERMAL_NONE where it is unknown
+    public synchronized void onDeviceState(int thermalStatus, int batteryPercent, boolean charging) {
+        this.thermalStatus = thermalStatus;
+        this.batteryPercent = batteryPercent;
+        this.charging = charging;
+        level = Math.max(level, bestAllowedLevel());
+    }
+
+    // latencyNanos from the capture of the frame to its result, nowNanos from System.nanoTime()
+    public synchronized Settings onFrame(long latencyNanos, long nowNanos) {
+        smoothedLatencyNanos = smoothedLatencyNanos < 0 ? latencyNanos
+                : smoothedLatencyNanos + SMOOTHING * (latencyNanos - smoothedLatencyNanos);
+
+        long budget = mode.budgetNanos;
+        if (smoothedLatencyNanos > budget) {
+            underBudgetSinceNanos = -1;
+            if (level < mode.worstLevel && nowNanos - lastChangeNanos >= STEP_DOWN_HOLD_NANOS) {
+                level++;
+                lastChangeNanos = nowNanos;
+            }
+        } else if (smoothedLatencyNanos < budget * STEP_UP_FRACTION) {
+            if (underBudgetSinceNanos < 0) {
+                underBudgetSinceNanos = nowNanos;
+            }
+            if (level > bestAllowedLevel() && nowNanos - underBudgetSinceNanos >= STEP_UP_HOLD_NANOS
+                    && nowNanos - lastChangeNanos >= STEP_UP_HOLD_NANOS) {
+                level--;
+                lastChangeNanos = nowNanos;
+                underBudgetSinceNanos = nowNanos;
+            }
+        } else {
+            underBudgetSinceNanos = -1;
+        }
+        return LEVELS[level];
+    }
+
+    public synchronized Settings getSettings() {
+        return LEVELS[level];
+    }
+
+    public synchronized int getLevel() {
+        return level;
+    }
+
+    public synchronized double getSmoothedLatencyMs() {
+        return Math.max(0, smoothedLatencyNanos) / 1e6;
+    }
+
+    private int bestAllowedLevel() {
+        if (thermalStatus >= THERMAL_SEVERE) {
+            return mode.worstLevel;
+        }
+        int best = mode.bestLevel;
+        if (thermalStatus >= THERMAL_MODERATE) {
+            best++;
+        }
+        if (batteryPercent <= LOW_BATTERY_PERCENT && !charging) {
+            best++;
+        }
+        return Math.min(best, mode.worstLevel);
+    }
+}
@@ -0,0 +1,183 @@
+package com.example.feelvision;
+
+import android.util.Log;
+
+import org.opencv.core.Mat;
+
+// Runs the recognition on its own thread so the camera preview does not wait for it.
+// The camera thread only copies its frame into a single slot mailbox, replacing any frame the
+// analysis thread has not picked up yet, and draws the latest published result.
+// Frames are either RGBA or the Y and chroma planes of a YUV frame, which take less than half
+// the bytes to copy and spare the analysis a full frame color conversion.
+public class AnalysisPipeline {
+    private static final String TAG = "AnalysisPipeline";
+
+    // called on the analysis thread with every published result and the sensor size of its frame
+    public interface ResultListener {
+        void onResult(RecognitionResult result, int frameWidth, int frameHeight);
+    }
+
+    private final FacialExpressionRecognition facialExpressionRecognition;
+    private final Object lock = new Object();
+    private Mat pendingFrame = new Mat();
+    private Mat analysedFrame = new Mat();
+    private Mat pendingUv = new Mat();
+    private Mat analysedUv = new Mat();
+    // 0 for an RGBA frame, the cvtColorTwoPlane code of the chroma plane otherwise
+    private int pendingUvConversion;
+    private long pendingTimestamp;
+    private boolean hasPendingFrame;
+    private boolean running;
+    // written and read under lock, joined outside of it
+    private Thread thread;
+    private int droppedFrames;
+    private volatile RecognitionResult latestResult = RecognitionResult.EMPTY;
+    private volatile ResultListener resultListener;
+
+    public AnalysisPipeline(FacialExpressionRecognition facialExpressionRecognition) {
+        this.facialExpressionRecognition = facialExpressionRecognition;
+    }
+
+    public void start() {
+        synchronized (lock) {
+            if (running) {
+                return;
+            }
+            running = true;
+            hasPendingFrame = false;
+            latestResult = RecognitionResult.EMPTY;
+            thread = new Thread(this::analysisLoop, "FrameAnalysis");
+            thread.start();
+        }
+    }
+
+    // blocks until the analysis thread is done with its current frame
+    public void stop() {
+        Thread analysisThread;
+        synchronized (lock) {
+            if (!running) {
+                return;
+            }
+            running = false;
+            analysisThread = thread;
+            thread = null;
+            lock.notifyAll();
+        }
+        if (analysisThread == null) {
+            return;
+        }
+        try {
+            analysisThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // called on the camera thread, latest frame wins
+    public void submit(Mat rgba) {
+        synchronized (lock) {
+            if (!running) {
+                return;
+            }
+            if (hasPendingFrame) {
+                droppedFrames++;
+            }
+            rgba.copyTo(pendingFrame);
+            pendingUvConversion = 0;
+            pendingTimestamp = System.nanoTime();
+            hasPendingFrame = true;
+            lock.notifyAll();
+        }
+    }
+
+    // called on the camera thread with the planes of a CameraBridgeViewBase.CvCameraViewYuvFrame
+    public void submit(Mat yPlane, Mat uvPlane, int uvConversion) {
+        synchronized (lock) {
+            if (!running) {
+                return;
+            }
+            if (hasPendingFrame) {
+                droppedFrames++;
+            }
+            yPlane.copyTo(pendingFrame);
+            uvPlane.copyTo(pendingUv);
+            pendingUvConversion = uvConversion;
+            pendingTimestamp = System.nanoTime();
+            hasPendingFrame = true;
+            lock.notifyAll();
+        }
+    }
+
+    // false while a frame waits in the mailbox, so that a producer that pays for every frame,
+    // like the GPU read back, can skip frames that would only replace it
+    public boolean acceptsFrame() {
+        synchronized (lock) {
+            return running && !hasPendingFrame;
+        }
+    }
+
+    public void setResultListener(ResultListener resultListener) {
+        this.resultListener = resultListener;
+    }
+
+    public RecognitionResult getLatestResult() {
+        return latestResult;
+    }
+
+    // frames replaced in the mailbox before the analysis thread could take them
+    public int getDroppedFrames() {
+        synchronized (lock) {
+            return droppedFrames;
+        }
+    }
+
+    public void release() {
+        stop();
+        pendingFrame.release();
+        analysedFrame.release();
+        pendingUv.release();
+        analysedUv.release();
+    }
+
+    private void analysisLoop() {
+        while (true) {
+            long timestamp;
+            int uvConversion;
+            synchronized (lock) {
+                while (running && !hasPendingFrame) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (!running) {
+                    return;
+                }
+                Mat frame = analysedFrame;
+                analysedFrame = pendingFrame;
+                pendingFrame = frame;
+                Mat uv = analysedUv;
+                analysedUv = pendingUv;
+                pendingUv = uv;
+                uvConversion = pendingUvConversion;
+                timestamp = pendingTimestamp;
+                hasPendingFrame = false;
+            }
+
+            try {
+                latestResult = uvConversion == 0
+                        ? facialExpressionRecognition.analyze(analysedFrame, timestamp)
+                        : facialExpressionRecognition.analyze(analysedFrame, analysedUv, uvConversion, timestamp);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Frame analysis failed", e);
+                continue;
+            }
+            ResultListener listener = resultListener;
+            if (listener != null) {
+                // the Y plane has the sensor size of the frame as well
+                listener.onResult(latestResult, analysedFrame.cols(), analysedFrame.rows());
+            }
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.example.feelvision;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.util.Log;
+
+import org.tensorflow.lite.Delegate;
+import org.tensorflow.lite.Interpreter;
+import org.tensorflow.lite.Tensor;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+// Picks the interpreter backend for a model on this device. On the first start every available
+// backend runs the model on a blank input and the fastest one is stored in private storage,
+// keyed by the model, the device build and the thread budget, so later starts skip the
+// benchmark. The backends run with the threads the interpreter gets from CpuBudget, CPU
+// backends that need more are not tried. A backend set with setOverride wins over the benchmark.
+public class BackendSelector {
+    private static final String TAG = "BackendSelector";
+    private static final String PREFERENCES = "interpreter_backend";
+    private static final String OVERRIDE_KEY = "override";
+    private static final int WARM_UP_RUNS = 3;
+    private static final int TIMED_RUNS = 10;
+    // creating a delegate is paid on every start, it counts as spread over this many frames
+    private static final int INIT_AMORTIZATION_FRAMES = 300;
+
+    private BackendSelector() {
+    }
+
+    // maxThreads is CpuBudget.getInterpreterThreads()
+    public static InterpreterBackend select(Context context, ByteBuffer model, String modelName, int maxThreads) {
+        SharedPreferences preferences = context.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
+        InterpreterBackend override = parse(preferences.getString(OVERRIDE_KEY, null));
+        if (override != null) {
+            Log.d(TAG, "Using " + override + ", set by hand");
+            return override;
+        }
+        // a system update can bring other drivers, the fingerprint includes the device model
+        String key = modelName + "|" + Build.FINGERPRINT + "|" + maxThreads;
+        InterpreterBackend stored = parse(preferences.getString(key, null));
+        if (stored != null) {
+            Log.d(TAG, "Using " + stored + ", benchmarked before");
+            return stored;
+        }
+
+        InterpreterBackend fastest = InterpreterBackend.cpu(maxThreads);
+        long fastestScore = Long.MAX_VALUE;
+        for (InterpreterBackend backend : InterpreterBackend.values()) {
+            // the budget would cap them to a CPU backend already in the list
+            if (!backend.isAvailable() || (backend.isCpu() && backend.getNumThreads() > maxThreads)) {
+                continue;
+            }
+            long score = benchmark(backend, model, maxThreads);
+            if (score >= 0 && score < fastestScore) {
+                fastest = backend;
+                fastestScore = score;
+            }
+        }
+        Log.d(TAG, "Selected " + fastest + " for " + modelName + " with " + maxThreads + " threads");
+        preferences.edit().putString(key, fastest.name()).apply();
+        return fastest;
+    }
+
+    // null goes back to the benchmarked backend
+    public static void setOverride(Context context, InterpreterBackend backend) {
+        SharedPreferences.Editor editor = context.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE).edit();
+        if (backend == null) {
+            editor.remove(OVERRIDE_KEY);
+        } else {
+            editor.putString(OVERRIDE_KEY, backend.name());
+        }
+        editor.apply();
+    }
+
+    // median run time plus the amortized creation time, -1 when the backend cannot run the model
+    static long benchmark(InterpreterBackend backend, ByteBuffer model, int maxThreads) {
+        Delegate delegate = null;
+        Interpreter interpreter = null;
+        try {
+            long start = System.nanoTime();
+            delegate = backend.createDelegate();
+            interpreter = new Interpreter(model, backend.createOptions(delegate, maxThreads));
+            long initNanos = System.nanoTime() - start;
+
+            ByteBuffer input = blankBuffer(interpreter.getInputTensor(0));
+            ByteBuffer output = blankBuffer(interpreter.getOutputTensor(0));
+            for (int i = 0; i < WARM_UP_RUNS; i++) {
+                run(interpreter, input, output);
+            }
+            long[] runs = new long[TIMED_RUNS];
+            for (int i = 0; i < TIMED_RUNS; i++) {
+                start = System.nanoTime();
+                run(interpreter, input, output);
+                runs[i] = System.nanoTime() - start;
+            }
+            Arrays.sort(runs);
+            long median = runs[TIMED_RUNS / 2];
+            Log.d(TAG, backend + ": " + median / 1000 + " us per run, " + initNanos / 1000000 + " ms to create");
+            return median + initNanos / INIT_AMORTIZATION_FRAMES;
+        } catch (RuntimeException | UnsatisfiedLinkError e) {
+            Log.w(TAG, backend + " cannot run the model: " + e.getMessage());
+            return -1;
+        } finally {
+            if (interpreter != null) {
+                interpreter.close();
+            }
+            InterpreterBackend.close(delegate);
+        }
+    }
+
+    private static void run(Interpreter interpreter, ByteBuffer input, ByteBuffer output) {
+        input.rewind();
+        output.rewind();
+        interpreter.run(input, output);
+    }
+
+    private static ByteBuffer blankBuffer(Tensor tensor) {
+        return ByteBuffer.allocateDirect(tensor.numBytes()).order(ByteOrder.nativeOrder());
+    }
+
+    private static InterpreterBackend parse(String name) {
+        if (name == null) {
+            return null;
+        }
+        try {
+            return InterpreterBackend.valueOf(name);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
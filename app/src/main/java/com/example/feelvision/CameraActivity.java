@@ -23,22 +23,44 @@ import android.widget.Toast;
 
 import org.opencv.android.BaseLoaderCallback;
 import org.opencv.android.CameraBridgeViewBase;
+import org.opencv.android.CameraGLSurfaceView;
 import org.opencv.android.LoaderCallbackInterface;
 import org.opencv.android.OpenCVLoader;
-import org.opencv.core.Core;
+import org.opencv.android.StageProfiler;
 import org.opencv.core.CvType;
 import org.opencv.core.Mat;
 
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Locale;
 
-public class CameraActivity extends Activity implements CameraBridgeViewBase.CvCameraViewListener2{
+public class CameraActivity extends Activity implements CameraBridgeViewBase.CvCameraViewListener2,
+        CameraGLSurfaceView.CameraTextureListener {
     private static final String TAG = "MainActivity";
+    // boolean extra that overrides the gpu_preview resource
+    public static final String EXTRA_GPU_PREVIEW = "gpu_preview";
+    // name of an AnalysisGovernor.Mode, by default the mode follows the battery saver setting
+    public static final String EXTRA_ANALYSIS_MODE = "analysis_mode";
+    // name of an InterpreterBackend to use from now on, AUTO to go back to the benchmarked one
+    public static final String EXTRA_INTERPRETER_BACKEND = "interpreter_backend";
+    // name of a FaceDetectorBackend to use from now on, when it is bundled with the app
+    public static final String EXTRA_FACE_DETECTOR = "face_detector";
+    // width of the frames read back from the GPU preview for the analysis
+    private static final int GPU_ANALYSIS_WIDTH = 640;
     private Mat mRgba;
+    // one of the two is set, depending on the gpu_preview setting
     private CameraBridgeViewBase mOpenCvCameraView;
+    private CameraGLSurfaceView mGLCameraView;
+    private FaceOverlayView faceOverlayView;
     private int mCameraId = 0;
-    private FacialExpressionRecognition facialExpressionRecognition;
+    // set on the main thread once RecognizerLoader is done, read on the camera thread
+    private volatile FacialExpressionRecognition facialExpressionRecognition;
+    private volatile AnalysisPipeline analysisPipeline;
+    private RecognizerEngine.Session recognizerSession;
+    private volatile boolean cameraStarted;
+    // startup timings, logged once
+    private long createdNanos;
+    private volatile boolean firstPreviewLogged;
+    private volatile boolean firstResultLogged;
     private FrameLayout parentFrameLayout;
     private TextToSpeech textToSpeech;
     private SpeechRecognizer speechRecognizer;
@@ -48,7 +70,7 @@ public class CameraActivity extends Activity implements CameraBridgeViewBase.CvC
         public void onManagerConnected(int status) {
             if (status == LoaderCallbackInterface.SUCCESS) {
                 Log.i(TAG, "OpenCv Is loaded");
-                mOpenCvCameraView.enableView();
+                enableCameraView();
             }
             super.onManagerConnected(status);
         }
@@ -57,6 +79,7 @@ public class CameraActivity extends Activity implements CameraBridgeViewBase.CvC
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        createdNanos = System.nanoTime();
         requestWindowFeature(Window.FEATURE_NO_TITLE);
         getWindow().addFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
 
@@ -67,26 +90,108 @@ public class CameraActivity extends Activity implements CameraBridgeViewBase.CvC
             ActivityCompat.requestPermissions(CameraActivity.this, new String[] {Manifest.permission.CAMERA}, MY_PERMISSIONS_REQUEST_CAMERA);
         }
 
-        setContentView(R.layout.activity_camera);
-        mOpenCvCameraView = findViewById(R.id.frame_Surface);
-        mOpenCvCameraView.setVisibility(SurfaceView.VISIBLE);
-        mOpenCvCameraView.setCvCameraViewListener(this);
+        // the GPU preview renders the camera with OpenGL and draws the results on a view above
+        // it, only a downscaled copy of every frame is read back for the analysis
+        boolean gpuPreview = getIntent().getBooleanExtra(EXTRA_GPU_PREVIEW,
+                getResources().getBoolean(R.bool.gpu_preview));
+        if (gpuPreview) {
+            setContentView(R.layout.activity_camera_gl);
+            mGLCameraView = findViewById(R.id.gl_Surface);
+            mGLCameraView.setCameraTextureListener(this);
+            faceOverlayView = findViewById(R.id.face_Overlay);
+        } else {
+            setContentView(R.layout.activity_camera);
+            mOpenCvCameraView = findViewById(R.id.frame_Surface);
+            mOpenCvCameraView.setVisibility(SurfaceView.VISIBLE);
+            mOpenCvCameraView.setCvCameraViewListener(this);
+        }
         parentFrameLayout = findViewById(R.id.parent_layout);
+        // per stage latencies are recorded in debug builds, see StageProfiler
+        StageProfiler.setEnabled(BuildConfig.DEBUG);
 
-        try {
-            int INPUT_SIZE = 48;
-            String modelFileName = "model_v4.tflite";
-            facialExpressionRecognition = new FacialExpressionRecognition(getAssets(),CameraActivity.this,
-                    modelFileName, INPUT_SIZE);
+        String interpreterBackend = getIntent().getStringExtra(EXTRA_INTERPRETER_BACKEND);
+        if ("AUTO".equals(interpreterBackend)) {
+            BackendSelector.setOverride(this, null);
+        } else if (interpreterBackend != null) {
+            try {
+                BackendSelector.setOverride(this, InterpreterBackend.valueOf(interpreterBackend));
+            } catch (IllegalArgumentException e) {
+                Log.w(TAG, "Unknown interpreter backend " + interpreterBackend);
+            }
         }
-        catch (IOException e){
-            e.printStackTrace();
+        String faceDetector = getIntent().getStringExtra(EXTRA_FACE_DETECTOR);
+        if (faceDetector != null) {
+            try {
+                FaceDetectorBackend.setPreferred(this, FaceDetectorBackend.valueOf(faceDetector));
+            } catch (IllegalArgumentException e) {
+                Log.w(TAG, "Unknown face detector " + faceDetector);
+            }
         }
 
+        // the preview starts right away, the analysis once the recognizer is loaded; it is
+        // shared with the previous camera activities of the process, see RecognizerEngine
+        recognizerSession = RecognizerEngine.get(this).openSession(this::onRecognizerLoaded);
+
         initializeTextToSpeech();
         initializeSpeechRecognizer();
         setupSpeechRecognitionOnTouchListener();
     }
+
+    private void onRecognizerLoaded(FacialExpressionRecognition recognizer) {
+        if (recognizer == null) {
+            // the camera keeps running without analysis
+            return;
+        }
+        logStartup("Recognizer ready");
+        String analysisMode = getIntent().getStringExtra(EXTRA_ANALYSIS_MODE);
+        if (analysisMode != null) {
+            try {
+                recognizer.getGovernor().setMode(AnalysisGovernor.Mode.valueOf(analysisMode));
+            } catch (IllegalArgumentException e) {
+                Log.w(TAG, "Unknown analysis mode " + analysisMode);
+            }
+        }
+        // a recognizer kept from an earlier activity was loaded with the detector preferred then;
+        // the analysis thread loads it, see requestFaceDetectorBackend
+        recognizer.requestFaceDetectorBackend(FaceDetectorBackend.preferred(this));
+        recognizer.setMirrored(mCameraId == 1);
+        facialExpressionRecognition = recognizer;
+        AnalysisPipeline pipeline = new AnalysisPipeline(recognizer);
+        if (mGLCameraView != null) {
+            pipeline.setResultListener(faceOverlayView::setResult);
+            mGLCameraView.setCameraPixelsListener(new CameraGLSurfaceView.CameraPixelsListener() {
+                @Override
+                public boolean wantsCameraPixels() {
+                    return pipeline.acceptsFrame();
+                }
+
+                @Override
+                public void onCameraPixels(Mat rgba) {
+                    pipeline.submit(rgba);
+                }
+            }, GPU_ANALYSIS_WIDTH);
+        }
+        analysisPipeline = pipeline;
+        if (cameraStarted) {
+            pipeline.start();
+        }
+    }
+
+    private void logStartup(String event) {
+        Log.i(TAG, event + " " + (System.nanoTime() - createdNanos) / 1000000 + " ms after onCreate");
+    }
+
+    // time to first preview and to first result, called for every preview frame
+    private void logStartupFrame(AnalysisPipeline pipeline) {
+        if (!firstPreviewLogged) {
+            firstPreviewLogged = true;
+            logStartup("First preview frame");
+        }
+        if (!firstResultLogged && pipeline != null && pipeline.getLatestResult() != RecognitionResult.EMPTY) {
+            firstResultLogged = true;
+            logStartup("First analysis result");
+        }
+    }
     private void initializeTextToSpeech() {
         textToSpeech = new TextToSpeech(this, i -> {
             textToSpeech.setLanguage(Locale.ENGLISH);
@@ -180,14 +285,50 @@ public class CameraActivity extends Activity implements CameraBridgeViewBase.CvC
     }
    private void swapCamera(){
         mCameraId = mCameraId^1; //basic not operation
-       mOpenCvCameraView.disableView();
-       mOpenCvCameraView.setCameraIndex(mCameraId);
-       mOpenCvCameraView.enableView();
+       disableCameraView();
+       if (mGLCameraView != null) {
+           mGLCameraView.setCameraIndex(mCameraId);
+       } else {
+           mOpenCvCameraView.setCameraIndex(mCameraId);
+       }
+       updateMirroring();
+       enableCameraView();
    }
 
+    private void enableCameraView() {
+        if (mGLCameraView != null) {
+            mGLCameraView.enableView();
+        } else {
+            mOpenCvCameraView.enableView();
+        }
+    }
+
+    private void disableCameraView() {
+        if (mGLCameraView != null) {
+            mGLCameraView.disableView();
+        } else if (mOpenCvCameraView != null) {
+            mOpenCvCameraView.disableView();
+        }
+    }
+
+    private void updateMirroring() {
+        boolean mirrored = mCameraId == 1;
+        if (mGLCameraView != null) {
+            mGLCameraView.setMirrored(mirrored);
+        } else {
+            mOpenCvCameraView.setMirrored(mirrored);
+        }
+        if (facialExpressionRecognition != null) {
+            facialExpressionRecognition.setMirrored(mirrored);
+        }
+    }
+
     @Override
     protected void onResume() {
         super.onResume();
+        if (mGLCameraView != null) {
+            mGLCameraView.onResume();
+        }
         if (OpenCVLoader.initDebug()) {
             Log.d(TAG,"Opencv initialization is done");
             mLoaderCallback.onManagerConnected(LoaderCallbackInterface.SUCCESS);
@@ -201,35 +342,75 @@ public class CameraActivity extends Activity implements CameraBridgeViewBase.CvC
     @Override
     protected void onPause() {
         super.onPause();
-        if (mOpenCvCameraView !=null){
-            mOpenCvCameraView.disableView();
+        disableCameraView();
+        if (mGLCameraView != null) {
+            mGLCameraView.onPause();
         }
     }
 
     public void onDestroy(){
         super.onDestroy();
 
-        if (mOpenCvCameraView != null){
-            mOpenCvCameraView.disableView();
-        }
+        disableCameraView();
         if (speechRecognizer != null) {
             speechRecognizer.destroy();
         }
+        if (textToSpeech != null) {
+            textToSpeech.shutdown();
+        }
+        // the pipeline is done with the recognizer before the session is closed
+        if (analysisPipeline != null) {
+            analysisPipeline.release();
+        }
+        recognizerSession.close();
     }
 
     public void onCameraViewStarted(int width ,int height){
         mRgba = new Mat(height,width, CvType.CV_8UC4);
+        cameraStarted = true;
+        AnalysisPipeline pipeline = analysisPipeline;
+        if (pipeline != null) {
+            pipeline.start();
+        }
     }
     public void onCameraViewStopped(){
+        cameraStarted = false;
+        AnalysisPipeline pipeline = analysisPipeline;
+        if (pipeline != null) {
+            pipeline.stop();
+        }
         mRgba.release();
     }
-    public Mat onCameraFrame(CameraBridgeViewBase.CvCameraViewFrame inputFrame){
-        mRgba = inputFrame.rgba();
 
-        if(mCameraId == 1){
-            Core.flip(mRgba, mRgba, 1); //rotate by 180
+    // GPU preview, the frames reach the analysis through the CameraPixelsListener
+    @Override
+    public boolean onCameraTexture(int texIn, int texOut, int width, int height) {
+        logStartupFrame(analysisPipeline);
+        return false;
+    }
+
+    public Mat onCameraFrame(CameraBridgeViewBase.CvCameraViewFrame inputFrame){
+        AnalysisPipeline pipeline = analysisPipeline;
+        logStartupFrame(pipeline);
+        if (pipeline == null) {
+            // the recognizer is still loading
+            mRgba = inputFrame.rgba();
+            return mRgba;
+        }
+        // analysis runs on its own thread, the preview shows the latest result it published
+        // the front camera mirror is applied by the recognizer and the view, not on the frame
+        Mat uv = inputFrame instanceof CameraBridgeViewBase.CvCameraViewYuvFrame
+                ? ((CameraBridgeViewBase.CvCameraViewYuvFrame) inputFrame).uv() : null;
+        if (uv != null) {
+            // the analysis takes the camera planes, the RGBA conversion is only for the preview
+            pipeline.submit(inputFrame.gray(), uv,
+                    ((CameraBridgeViewBase.CvCameraViewYuvFrame) inputFrame).uvConversion());
+            mRgba = inputFrame.rgba();
+        } else {
+            mRgba = inputFrame.rgba();
+            pipeline.submit(mRgba);
         }
-        mRgba = facialExpressionRecognition.recognizeImage(mRgba);
+        facialExpressionRecognition.drawResult(mRgba, pipeline.getLatestResult());
 
         return mRgba;
     }
@@ -0,0 +1,89 @@
+package com.example.feelvision;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.util.Log;
+
+import org.opencv.objdetect.CascadeClassifier;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+// Cascades bundled as raw resources, extracted to private storage and parsed once per process.
+// The extracted file is kept across starts and only written again when the app was installed
+// or updated since, or when the file is not the size it was written with. The parsed
+// classifiers are shared by every recognizer of the process, activity recreations included,
+// so they must not be released by their users.
+public final class CascadeCache {
+    private static final String TAG = "CascadeCache";
+    private static final String PREFERENCES = "cascade_cache";
+
+    private static final Map<String, CascadeClassifier> classifiers = new HashMap<>();
+
+    private CascadeCache() {
+    }
+
+    public static synchronized CascadeClassifier get(Context context, int rawId, String name) throws IOException {
+        CascadeClassifier classifier = classifiers.get(name);
+        if (classifier != null) {
+            return classifier;
+        }
+
+        long start = System.nanoTime();
+        File file = extract(context, rawId, name);
+        long extracted = System.nanoTime();
+        classifier = new CascadeClassifier(file.getAbsolutePath());
+        if (classifier.empty()) {
+            // most likely a truncated file, extract it again next time
+            context.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE).edit().remove(name).apply();
+            throw new IOException("Cannot parse the cascade " + file);
+        }
+        Log.d(TAG, name + ": file ready in " + (extracted - start) / 1000000 + " ms, parsed in "
+                + (System.nanoTime() - extracted) / 1000000 + " ms");
+        classifiers.put(name, classifier);
+        return classifier;
+    }
+
+    private static File extract(Context context, int rawId, String name) throws IOException {
+        File file = new File(context.getDir("cascade", Context.MODE_PRIVATE), name);
+        SharedPreferences preferences = context.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
+        String version = installedVersion(context) + ":" + rawId;
+        if ((version + ":" + file.length()).equals(preferences.getString(name, null))) {
+            return file;
+        }
+
+        // written next to the cascade and renamed, a crash never leaves half a file behind
+        File partial = new File(file.getPath() + ".partial");
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream inputStream = context.getResources().openRawResource(rawId);
+             OutputStream outputStream = new FileOutputStream(partial)) {
+            int byteRead;
+            while ((byteRead = inputStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, byteRead);
+            }
+        }
+        if (!partial.renameTo(file)) {
+            throw new IOException("Cannot rename " + partial + " to " + file);
+        }
+        preferences.edit().putString(name, version + ":" + file.length()).apply();
+        Log.d(TAG, name + " extracted for " + version);
+        return file;
+    }
+
+    // changes with every install or update of the app, which is when resources can change
+    private static String installedVersion(Context context) {
+        try {
+            PackageInfo packageInfo = context.getPackageManager().getPackageInfo(context.getPackageName(), 0);
+            return packageInfo.versionCode + "/" + packageInfo.lastUpdateTime;
+        } catch (PackageManager.NameNotFoundException e) {
+            return "unknown";
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.example.feelvision;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfRect;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.objdetect.CascadeClassifier;
+
+// Haar or LBP cascade, the kind only depends on the file the classifier was loaded from.
+// The classifier may be shared, see CascadeCache, and is not released with the detector.
+public class CascadeFaceDetector implements FaceDetector {
+    private final CascadeClassifier cascadeClassifier;
+    private final MatOfRect faces = new MatOfRect();
+
+    public CascadeFaceDetector(CascadeClassifier cascadeClassifier) {
+        this.cascadeClassifier = cascadeClassifier;
+    }
+
+    @Override
+    public Rect[] detect(Mat grayscaleImage, double minSize, double maxSize) {
+        Size max = maxSize > 0 ? new Size(maxSize, maxSize) : new Size();
+        cascadeClassifier.detectMultiScale(grayscaleImage, faces, 1.1, 2, 2,
+                new Size(minSize, minSize), max);
+        return faces.toArray();
+    }
+
+    @Override
+    public void release() {
+        faces.release();
+    }
+}
@@ -0,0 +1,102 @@
+package com.example.feelvision;
+
+import org.opencv.core.Core;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+
+// Splits the cores between the parallel backend of OpenCV, which the cascade and the color
+// conversions use, and the thread pool of the interpreter. Both pools otherwise size
+// themselves for every core and keep spinning after their work, so the one running next
+// waits for the other to yield, and threads that land on a LITTLE core finish last and hold
+// back the whole parallel loop.
+//
+// Only the big cores, those with the highest maximum frequencies, are split. When all cores
+// are alike one of them is left to the camera and the preview. Detection gets most of the
+// share, the classifier only runs on 48x48 faces.
+public class CpuBudget {
+    private static final String MAX_FREQUENCY = "/sys/devices/system/cpu/cpu%d/cpufreq/cpuinfo_max_freq";
+
+    private final int cores;
+    private final int bigCores;
+    private final int openCvThreads;
+    private final int interpreterThreads;
+
+    public CpuBudget(int cores, int bigCores, int openCvThreads, int interpreterThreads) {
+        this.cores = cores;
+        this.bigCores = bigCores;
+        this.openCvThreads = openCvThreads;
+        this.interpreterThreads = interpreterThreads;
+    }
+
+    public static CpuBudget split(int cores, int bigCores) {
+        int usable = bigCores == cores && cores >= 4 ? cores - 1 : bigCores;
+        int interpreterThreads = Math.max(1, Math.min(4, usable / 3));
+        int openCvThreads = Math.max(1, usable - interpreterThreads);
+        return new CpuBudget(cores, bigCores, openCvThreads, interpreterThreads);
+    }
+
+    // needs the OpenCV natives
+    public static CpuBudget forDevice() {
+        int cores = Core.getNumberOfCPUs();
+        return split(cores, countBigCores(cores));
+    }
+
+    // cores above the lowest maximum frequency, all of them when the frequencies are unknown
+    // or equal
+    static int countBigCores(int cores) {
+        long[] frequencies = new long[cores];
+        long lowest = Long.MAX_VALUE;
+        for (int i = 0; i < cores; i++) {
+            frequencies[i] = readMaxFrequency(i);
+            if (frequencies[i] <= 0) {
+                return cores;
+            }
+            lowest = Math.min(lowest, frequencies[i]);
+        }
+        int bigCores = 0;
+        for (long frequency : frequencies) {
+            if (frequency > lowest) {
+                bigCores++;
+            }
+        }
+        return bigCores == 0 ? cores : bigCores;
+    }
+
+    private static long readMaxFrequency(int core) {
+        try (BufferedReader reader = new BufferedReader(new FileReader(String.format(MAX_FREQUENCY, core)))) {
+            String line = reader.readLine();
+            return line == null ? -1 : Long.parseLong(line.trim());
+        } catch (IOException | NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    // the interpreter threads are applied with its options, see FacialExpressionRecognition
+    public void apply() {
+        Core.setNumThreads(openCvThreads);
+    }
+
+    public int getCores() {
+        return cores;
+    }
+
+    public int getBigCores() {
+        return bigCores;
+    }
+
+    public int getOpenCvThreads() {
+        return openCvThreads;
+    }
+
+    public int getInterpreterThreads() {
+        return interpreterThreads;
+    }
+
+    @Override
+    public String toString() {
+        return cores + " cores, " + bigCores + " big: " + openCvThreads + " OpenCV threads, "
+                + interpreterThreads + " interpreter threads";
+    }
+}
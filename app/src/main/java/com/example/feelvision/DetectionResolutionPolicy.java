@@ -0,0 +1,57 @@
+package com.example.feelvision;
+
+import org.opencv.core.Rect;
+
+// Resolution the face detector works at, independent of the camera preview resolution.
+// The width is the one of the upright image the cascade sees; boxes found there are scaled
+// back to the full frame before the face is cropped for the model.
+public class DetectionResolutionPolicy {
+    public static final int FULL_RESOLUTION = 0;
+
+    private final int targetWidth;
+
+    // targetWidth of FULL_RESOLUTION disables downscaling
+    public DetectionResolutionPolicy(int targetWidth) {
+        this.targetWidth = targetWidth;
+    }
+
+    // smaller detection images on devices with few cores or little memory
+    public static DetectionResolutionPolicy forDevice(int cpuCount, boolean lowRamDevice) {
+        if (lowRamDevice || cpuCount <= 4) {
+            return new DetectionResolutionPolicy(240);
+        }
+        if (cpuCount <= 6) {
+            return new DetectionResolutionPolicy(320);
+        }
+        return new DetectionResolutionPolicy(480);
+    }
+
+    // the smaller of the two widths, FULL_RESOLUTION only when both are
+    public DetectionResolutionPolicy limitedTo(int targetWidth) {
+        if (targetWidth == FULL_RESOLUTION
+                || (this.targetWidth != FULL_RESOLUTION && this.targetWidth <= targetWidth)) {
+            return this;
+        }
+        return new DetectionResolutionPolicy(targetWidth);
+    }
+
+    public int getTargetWidth() {
+        return targetWidth;
+    }
+
+    // scale from the upright full frame to the detection image, never above 1
+    public double scaleFor(int uprightWidth) {
+        if (targetWidth == FULL_RESOLUTION || uprightWidth <= targetWidth) {
+            return 1;
+        }
+        return targetWidth / (double) uprightWidth;
+    }
+
+    public static Rect toFullResolution(Rect detected, double scale) {
+        if (scale == 1) {
+            return detected;
+        }
+        return new Rect((int) Math.round(detected.x / scale), (int) Math.round(detected.y / scale),
+                (int) Math.round(detected.width / scale), (int) Math.round(detected.height / scale));
+    }
+}
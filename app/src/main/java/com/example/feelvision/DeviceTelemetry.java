@@ -0,0 +1,57 @@
+package com.example.feelvision;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.os.PowerManager;
+
+// Thermal and battery state for AnalysisGovernor. Polled from the analysis thread at most
+// every few seconds, reading the sticky battery broadcast is a call into the system server.
+public class DeviceTelemetry {
+    private static final long POLL_INTERVAL_NANOS = 5000000000L;
+
+    private final Context context;
+    private final PowerManager powerManager;
+    private long lastPollNanos;
+    private boolean polled;
+
+    public DeviceTelemetry(Context context) {
+        this.context = context.getApplicationContext();
+        powerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+    }
+
+    public void poll(AnalysisGovernor governor, long nowNanos) {
+        if (polled && nowNanos - lastPollNanos < POLL_INTERVAL_NANOS) {
+            return;
+        }
+        polled = true;
+        lastPollNanos = nowNanos;
+
+        int thermalStatus = AnalysisGovernor.THERMAL_NONE;
+        if (Build.VERSION.SDK_INT >= 29 && powerManager != null) {
+            thermalStatus = powerManager.getCurrentThermalStatus();
+        }
+        int batteryPercent = 100;
+        boolean charging = true;
+        Intent battery = context.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        if (battery != null) {
+            int level = battery.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+            int scale = battery.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+            if (level >= 0 && scale > 0) {
+                batteryPercent = level * 100 / scale;
+            }
+            int status = battery.getIntExtra(BatteryManager.EXTRA_STATUS, -1);
+            charging = status == BatteryManager.BATTERY_STATUS_CHARGING
+                    || status == BatteryManager.BATTERY_STATUS_FULL;
+        }
+        governor.onDeviceState(thermalStatus, batteryPercent, charging);
+    }
+
+    // the mode to start in when the user did not pick one
+    public AnalysisGovernor.Mode defaultMode() {
+        return powerManager != null && powerManager.isPowerSaveMode()
+                ? AnalysisGovernor.Mode.BATTERY_SAVER : AnalysisGovernor.Mode.BALANCED;
+    }
+}
@@ -0,0 +1,22 @@
+package com.example.feelvision;
+
+import java.nio.ByteBuffer;
+
+// Model that turns a batch of preprocessed faces into emotion scores. Keeps FrameAnalyzer
+// free of the TFLite runtime, which only exists on Android.
+public interface EmotionClassifier {
+    // returns false when the model cannot take another batch size, see TensorArena.getInputShape;
+    // a delegate may also accept the size and fail on the next run, see FrameAnalyzer
+    boolean resizeInput(int[] inputShape);
+
+    // 3 for RGB faces, 1 for grayscale ones
+    int getInputChannels();
+
+    // element types of the input and the scores, see TensorArena
+    TensorSpec getInputSpec();
+
+    TensorSpec getOutputSpec();
+
+    // one row of scores per face of the batch in input, in the type of getOutputSpec
+    void run(ByteBuffer input, ByteBuffer output);
+}
@@ -0,0 +1,111 @@
+package com.example.feelvision;
+
+// Temporal filter for the emotion scores of one face. Keeps the last windowSize score
+// vectors in a flat ring with a running sum, so an update costs O(classes) and allocates
+// nothing. A new emotion is only reported once it has led the windowed average for
+// minStableFrames updates in a row and beats the current one by the hysteresis margin.
+public class EmotionSmoother {
+    public static final int NONE = -1;
+
+    private final int numClasses;
+    private final int windowSize;
+    private final int minStableFrames;
+    private final float hysteresis;
+    private final float[] ring;
+    private final float[] sum;
+    // the scores of the face are only computed again when it changed, see InferenceCache
+    private final InferenceCache inferenceCache;
+    private int head;
+    private int count;
+    private int stableClass = NONE;
+    private int candidateClass = NONE;
+    private int candidateFrames;
+
+    public EmotionSmoother(int numClasses) {
+        this(numClasses, 8, 3, 0.1f);
+    }
+
+    public EmotionSmoother(int numClasses, int windowSize, int minStableFrames, float hysteresis) {
+        this.numClasses = numClasses;
+        this.windowSize = windowSize;
+        this.minStableFrames = minStableFrames;
+        this.hysteresis = hysteresis;
+        ring = new float[windowSize * numClasses];
+        sum = new float[numClasses];
+        inferenceCache = new InferenceCache(numClasses);
+    }
+
+    // adds the scores of one frame, returns the stable class or NONE while there is none yet
+    public int update(float[] scores) {
+        int offset = head * numClasses;
+        for (int i = 0; i < numClasses; i++) {
+            if (count == windowSize) {
+                sum[i] -= ring[offset + i];
+            }
+            ring[offset + i] = scores[i];
+            sum[i] += scores[i];
+        }
+        head = (head + 1) % windowSize;
+        if (count < windowSize) {
+            count++;
+        }
+
+        int leader = argmax(sum);
+
+        if (leader == stableClass) {
+            candidateClass = NONE;
+            candidateFrames = 0;
+            return stableClass;
+        }
+        if (leader == candidateClass) {
+            candidateFrames++;
+        } else {
+            candidateClass = leader;
+            candidateFrames = 1;
+        }
+
+        boolean clearLead = stableClass == NONE
+                || (sum[leader] - sum[stableClass]) / count >= hysteresis;
+        if (candidateFrames >= minStableFrames && clearLead) {
+            stableClass = leader;
+            candidateClass = NONE;
+            candidateFrames = 0;
+        }
+        return stableClass;
+    }
+
+    public static int argmax(float[] array) {
+        int maxIndex = 0;
+        for (int i = 1; i < array.length; i++) {
+            if (array[i] > array[maxIndex]) {
+                maxIndex = i;
+            }
+        }
+        return maxIndex;
+    }
+
+    // windowed average score of a class
+    public float getAverage(int classIndex) {
+        return count == 0 ? 0 : sum[classIndex] / count;
+    }
+
+    public int getStableClass() {
+        return stableClass;
+    }
+
+    public InferenceCache getInferenceCache() {
+        return inferenceCache;
+    }
+
+    public void reset() {
+        for (int i = 0; i < numClasses; i++) {
+            sum[i] = 0;
+        }
+        head = 0;
+        count = 0;
+        stableClass = NONE;
+        candidateClass = NONE;
+        candidateFrames = 0;
+        inferenceCache.reset();
+    }
+}
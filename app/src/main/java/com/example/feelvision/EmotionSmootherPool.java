@@ -0,0 +1,104 @@
+package com.example.feelvision;
+
+import org.opencv.core.Rect;
+
+// Keeps one EmotionSmoother per visible face. A face inherits the smoother of the face of the
+// previous frame it overlaps most, so its history survives re-detections and reordering.
+public class EmotionSmootherPool {
+    private final EmotionSmoother[] smoothers;
+    private final Rect[] previousFaces;
+    private final boolean[] used;
+    private final EmotionSmoother[] assigned;
+    private final Rect[] assignedFaces;
+    private int previousCount;
+
+    public EmotionSmootherPool(int numClasses, int maxFaces) {
+        smoothers = new EmotionSmoother[maxFaces];
+        for (int i = 0; i < maxFaces; i++) {
+            smoothers[i] = new EmotionSmoother(numClasses);
+        }
+        previousFaces = new Rect[maxFaces];
+        used = new boolean[maxFaces];
+        assigned = new EmotionSmoother[maxFaces];
+        assignedFaces = new Rect[maxFaces];
+    }
+
+    // returns the smoother of each face, faces beyond the pool size get none
+    public EmotionSmoother[] assign(Rect[] faces) {
+        int count = Math.min(faces.length, smoothers.length);
+        for (int i = 0; i < smoothers.length; i++) {
+            used[i] = false;
+            assigned[i] = null;
+        }
+
+        for (int i = 0; i < count; i++) {
+            int match = -1;
+            double bestOverlap = 0;
+            for (int p = 0; p < previousCount; p++) {
+                double overlap = overlap(faces[i], previousFaces[p]);
+                if (!used[p] && overlap > bestOverlap) {
+                    bestOverlap = overlap;
+                    match = p;
+                }
+            }
+            if (match >= 0) {
+                used[match] = true;
+                assigned[i] = smoothers[match];
+            }
+        }
+
+        // faces without a predecessor take a free smoother and start from scratch
+        for (int i = 0; i < count; i++) {
+            if (assigned[i] != null) {
+                continue;
+            }
+            for (int s = 0; s < smoothers.length; s++) {
+                if (!used[s]) {
+                    used[s] = true;
+                    assigned[i] = smoothers[s];
+                    assigned[i].reset();
+                    break;
+                }
+            }
+        }
+
+        // keep the slots of the pool in the order of the faces of this frame
+        for (int i = 0; i < count; i++) {
+            assignedFaces[i] = faces[i];
+        }
+        int next = count;
+        for (int s = 0; s < smoothers.length; s++) {
+            if (!contains(assigned, count, smoothers[s])) {
+                assigned[next++] = smoothers[s];
+            }
+        }
+        System.arraycopy(assigned, 0, smoothers, 0, smoothers.length);
+        System.arraycopy(assignedFaces, 0, previousFaces, 0, count);
+        previousCount = count;
+        return smoothers;
+    }
+
+    public void reset() {
+        previousCount = 0;
+    }
+
+    private static boolean contains(EmotionSmoother[] array, int length, EmotionSmoother smoother) {
+        for (int i = 0; i < length; i++) {
+            if (array[i] == smoother) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // intersection over union
+    private static double overlap(Rect a, Rect b) {
+        int width = Math.min(a.x + a.width, b.x + b.width) - Math.max(a.x, b.x);
+        int height = Math.min(a.y + a.height, b.y + b.height) - Math.max(a.y, b.y);
+        if (width <= 0 || height <= 0) {
+            return 0;
+        }
+        double intersection = (double) width * height;
+        return intersection / (a.area() + b.area() - intersection);
+    }
+}
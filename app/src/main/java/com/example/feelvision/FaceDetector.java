@@ -0,0 +1,14 @@
+package com.example.feelvision;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+
+// Finds faces in an upright gray image. SearchWindowDetector decides where it runs: on the
+// whole detection image or on a window around a face seen before. Implementations keep no
+// Android dependency, so the replay and the benchmarks can compare them on recorded frames.
+public interface FaceDetector {
+    // faces whose width is between minSize and maxSize pixels, maxSize 0 for no upper bound
+    Rect[] detect(Mat grayscaleImage, double minSize, double maxSize);
+
+    void release();
+}
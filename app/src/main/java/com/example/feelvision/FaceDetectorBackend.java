@@ -0,0 +1,72 @@
+package com.example.feelvision;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.io.IOException;
+
+// Face detectors the recognizer can run, see FaceDetector. Each is a cascade in res/raw:
+// haarcascade_frontalface_alt, and lbpcascade_frontalface from data/lbpcascades of the same
+// OpenCV release, BSD licensed like it. A backend whose cascade is not in res/raw is not
+// available and preferred() stays on HAAR. The replay compares them on recorded frames, with
+// --detector and --reference, and against its DNN detector.
+public enum FaceDetectorBackend {
+    HAAR("haarcascade_frontalface_alt"),
+    LBP("lbpcascade_frontalface");
+
+    private static final String TAG = "FaceDetectorBackend";
+    private static final String PREFERENCES = "face_detector";
+    private static final String KEY_PREFERRED = "preferred";
+
+    private final String rawName;
+
+    FaceDetectorBackend(String rawName) {
+        this.rawName = rawName;
+    }
+
+    public boolean isAvailable(Context context) {
+        return rawId(context, rawName) != 0;
+    }
+
+    // throws when a file is missing or cannot be parsed
+    public FaceDetector create(Context context) throws IOException {
+        if (!isAvailable(context)) {
+            throw new IOException(this + " face detector is not bundled with the app");
+        }
+        return new CascadeFaceDetector(CascadeCache.get(context, rawId(context, rawName), rawName));
+    }
+
+    // the preferred detector when it is bundled, HAAR otherwise
+    public static FaceDetectorBackend preferred(Context context) {
+        String name = context.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE).getString(KEY_PREFERRED, null);
+        if (name == null) {
+            return HAAR;
+        }
+        try {
+            FaceDetectorBackend backend = valueOf(name);
+            if (backend.isAvailable(context)) {
+                return backend;
+            }
+            Log.w(TAG, backend + " face detector is not bundled with the app, using " + HAAR);
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, "Unknown face detector " + name);
+        }
+        return HAAR;
+    }
+
+    // null goes back to HAAR
+    public static void setPreferred(Context context, FaceDetectorBackend backend) {
+        SharedPreferences.Editor editor = context.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE).edit();
+        if (backend == null) {
+            editor.remove(KEY_PREFERRED);
+        } else {
+            editor.putString(KEY_PREFERRED, backend.name());
+        }
+        editor.apply();
+    }
+
+    private static int rawId(Context context, String rawName) {
+        return context.getResources().getIdentifier(rawName, "raw", context.getPackageName());
+    }
+}
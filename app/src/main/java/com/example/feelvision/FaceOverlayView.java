@@ -0,0 +1,73 @@
+package com.example.feelvision;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.util.AttributeSet;
+import android.view.View;
+
+import org.opencv.core.Rect;
+
+// Draws the boxes and labels of the latest result over the GPU preview, in place of
+// FacialExpressionRecognition.drawResult which draws them into the frame. Only this view is
+// redrawn when a result arrives, the preview itself never goes through a Bitmap.
+// The preview is laid out like CameraBridgeViewBase does it: rotated upright when the view
+// is taller than wide, in the orientation of the camera otherwise.
+public class FaceOverlayView extends View {
+    private final Paint boxPaint = new Paint();
+    private final Paint textPaint = new Paint();
+    private volatile RecognitionResult result = RecognitionResult.EMPTY;
+    private volatile int frameWidth;
+    private volatile int frameHeight;
+
+    public FaceOverlayView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        boxPaint.setColor(Color.rgb(0, 255, 0));
+        boxPaint.setStyle(Paint.Style.STROKE);
+        boxPaint.setStrokeWidth(4);
+        textPaint.setColor(Color.argb(150, 237, 9, 9));
+        textPaint.setTextSize(64);
+        textPaint.setAntiAlias(true);
+    }
+
+    // any thread, frameWidth and frameHeight are the sensor size of the analysed frame
+    public void setResult(RecognitionResult result, int frameWidth, int frameHeight) {
+        if (result.getFaceCount() == 0 && this.result.getFaceCount() == 0) {
+            return;
+        }
+        this.frameWidth = frameWidth;
+        this.frameHeight = frameHeight;
+        this.result = result;
+        postInvalidate();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        RecognitionResult result = this.result;
+        int frameWidth = this.frameWidth;
+        int frameHeight = this.frameHeight;
+        if (result.getFaceCount() == 0 || frameWidth <= 0 || frameHeight <= 0) {
+            return;
+        }
+        boolean rotated = getHeight() > getWidth();
+        // the upright frame is frameHeight wide
+        float scaleX = getWidth() / (float) (rotated ? frameHeight : frameWidth);
+        float scaleY = getHeight() / (float) (rotated ? frameWidth : frameHeight);
+        for (int i = 0; i < result.getFaceCount(); i++) {
+            Rect face = result.getFace(i);
+            if (!rotated) {
+                face = FrameOrientation.toFrame(face, frameWidth, frameHeight, result.isMirrored());
+                if (result.isMirrored()) {
+                    // the preview is mirrored on screen, the frame is not
+                    face.x = frameWidth - face.x - face.width;
+                }
+            }
+            float left = face.x * scaleX;
+            float top = face.y * scaleY;
+            canvas.drawRect(left, top, (face.x + face.width) * scaleX, (face.y + face.height) * scaleY, boxPaint);
+            canvas.drawText(result.getEmotion(i), left + 10, top - 10, textPaint);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.example.feelvision;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import java.nio.ByteBuffer;
+
+// Turns an RGBA face ROI into the normalized model input without going through
+// a Bitmap: resize, rotate upright, drop alpha and scale to 0-1 all happen in reused Mats.
+// Grayscale models take a gray ROI as it is, an RGBA one is converted.
+// For a quantized input the 0-1 values are quantized by the same conversion, straight from
+// the 8 bit pixels, see TensorSpec.
+public class FacePreprocessor {
+    private final TensorArena tensorArena;
+    private final FrameOrientation frameOrientation;
+    private final Size inputSize;
+    private final Mat resized = new Mat();
+    private final Mat upright = new Mat();
+    private final Mat rgb = new Mat();
+    private final Mat gray = new Mat();
+    private final Mat normalized = new Mat();
+    private final Size signatureSize = new Size(8, 8);
+    private final Mat signatureMat = new Mat();
+    private byte[] signature = new byte[0];
+    // upright model input of the last face, 8 bit
+    private Mat lastFace;
+    private final float[] values;
+    private final byte[] quantizedValues;
+    private final int quantizedType;
+    private final double quantizedAlpha;
+    private final double quantizedBeta;
+
+    public FacePreprocessor(TensorArena tensorArena, FrameOrientation frameOrientation) {
+        this.tensorArena = tensorArena;
+        this.frameOrientation = frameOrientation;
+        int size = tensorArena.getInputSize();
+        inputSize = new Size(size, size);
+        TensorSpec inputSpec = tensorArena.getInputSpec();
+        if (inputSpec.isQuantized()) {
+            values = null;
+            quantizedValues = new byte[tensorArena.getFaceLength()];
+            quantizedType = inputSpec.getType() == TensorSpec.Type.INT8 ? CvType.CV_8S : CvType.CV_8U;
+            // q = pixel / 255 / scale + zeroPoint, rounded and saturated by convertTo
+            quantizedAlpha = 1 / (255.0 * inputSpec.getScale());
+            quantizedBeta = inputSpec.getZeroPoint();
+        } else {
+            values = new float[tensorArena.getFaceLength()];
+            quantizedValues = null;
+            quantizedType = -1;
+            quantizedAlpha = 1;
+            quantizedBeta = 0;
+        }
+    }
+
+    // faceRgba is the ROI in sensor orientation, it is rotated only after downscaling;
+    // it can be single channel when the model is grayscale
+    public ByteBuffer process(Mat faceRgba) {
+        return process(faceRgba, 0);
+    }
+
+    // writes the face at the given position of the input batch
+    public ByteBuffer process(Mat faceRgba, int slot) {
+        // nearest neighbour keeps the same sampling as the old createScaledBitmap(..., false)
+        Imgproc.resize(faceRgba, resized, inputSize, 0, 0, Imgproc.INTER_NEAREST);
+        frameOrientation.toUpright(resized, upright);
+        Mat channels = rgb;
+        if (tensorArena.getChannels() == 1) {
+            channels = upright;
+            if (upright.channels() != 1) {
+                Imgproc.cvtColor(upright, gray, Imgproc.COLOR_RGBA2GRAY);
+                channels = gray;
+            }
+        } else {
+            Imgproc.cvtColor(upright, rgb, Imgproc.COLOR_RGBA2RGB);
+        }
+        lastFace = channels;
+        if (quantizedValues != null) {
+            channels.convertTo(normalized, quantizedType, quantizedAlpha, quantizedBeta);
+            normalized.get(0, 0, quantizedValues);
+            tensorArena.inputBytes(slot).put(quantizedValues);
+            return tensorArena.input();
+        }
+        //convert image from 0-255 to 0-1
+        channels.convertTo(normalized, CvType.CV_32F, 1 / 255.0);
+        normalized.get(0, 0, values);
+
+        tensorArena.inputFloats(slot).put(values);
+        return tensorArena.input();
+    }
+
+    // 8x8 area average of the last processed face, per channel; computed on demand, the array
+    // is reused by the next call
+    public byte[] getSignature() {
+        Imgproc.resize(lastFace, signatureMat, signatureSize, 0, 0, Imgproc.INTER_AREA);
+        int length = (int) (signatureMat.total() * signatureMat.channels());
+        if (signature.length != length) {
+            signature = new byte[length];
+        }
+        signatureMat.get(0, 0, signature);
+        return signature;
+    }
+
+    public void release() {
+        resized.release();
+        upright.release();
+        rgb.release();
+        gray.release();
+        normalized.release();
+        signatureMat.release();
+    }
+}
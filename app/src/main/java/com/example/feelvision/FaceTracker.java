@@ -0,0 +1,94 @@
+package com.example.feelvision;
+
+import org.opencv.core.Rect;
+
+// Decides when the cascade has to run and when the face boxes can be propagated by the
+// optical flow tracker instead. Pure Java, the boxes only come in and go out.
+//
+// SEARCHING: no face is known, detection runs on every frame.
+// TRACKING: boxes are propagated between detections; a detection is requested again every
+// redetectInterval frames, when a track reports low confidence or when a box drifted too
+// far from where it was last detected.
+public class FaceTracker {
+    public enum State { SEARCHING, TRACKING }
+
+    private static final Rect[] NO_FACES = new Rect[0];
+
+    private int redetectInterval;
+    private float minConfidence;
+    private double maxDrift;
+
+    private State state = State.SEARCHING;
+    private int framesSinceDetection;
+    private boolean lost;
+    private Rect[] anchors = NO_FACES;
+    private Rect[] faces = NO_FACES;
+
+    public FaceTracker() {
+        this(5, 0.5f, 0.5);
+    }
+
+    // maxDrift is the allowed center displacement since the last detection, relative to the face width
+    public FaceTracker(int redetectInterval, float minConfidence, double maxDrift) {
+        setRedetectInterval(redetectInterval);
+        setMinConfidence(minConfidence);
+        setMaxDrift(maxDrift);
+    }
+
+    public void setRedetectInterval(int redetectInterval) {
+        this.redetectInterval = Math.max(1, redetectInterval);
+    }
+
+    public void setMinConfidence(float minConfidence) {
+        this.minConfidence = minConfidence;
+    }
+
+    public void setMaxDrift(double maxDrift) {
+        this.maxDrift = maxDrift;
+    }
+
+    public int getRedetectInterval() {
+        return redetectInterval;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public boolean shouldDetect() {
+        return state == State.SEARCHING || lost || framesSinceDetection >= redetectInterval;
+    }
+
+    public void onDetection(Rect[] detected) {
+        anchors = detected.length == 0 ? NO_FACES : detected.clone();
+        faces = anchors;
+        framesSinceDetection = 0;
+        lost = false;
+        state = detected.length == 0 ? State.SEARCHING : State.TRACKING;
+    }
+
+    // boxes and confidences are indexed like the faces of the last detection
+    public void onTracked(Rect[] tracked, float[] confidences) {
+        framesSinceDetection++;
+        for (int i = 0; i < tracked.length; i++) {
+            if (confidences[i] < minConfidence || drift(anchors[i], tracked[i]) > maxDrift) {
+                lost = true;
+            }
+        }
+        faces = tracked;
+    }
+
+    public Rect[] getFaces() {
+        return faces;
+    }
+
+    public void reset() {
+        onDetection(NO_FACES);
+    }
+
+    static double drift(Rect anchor, Rect box) {
+        double dx = (box.x + box.width / 2.0) - (anchor.x + anchor.width / 2.0);
+        double dy = (box.y + box.height / 2.0) - (anchor.y + anchor.height / 2.0);
+        return Math.sqrt(dx * dx + dy * dy) / Math.max(1, anchor.width);
+    }
+}
@@ -1,41 +1,57 @@
 package com.example.feelvision;
 
+import android.app.ActivityManager;
 import android.content.Context;
 import android.content.res.AssetFileDescriptor;
 import android.content.res.AssetManager;
-import android.graphics.Bitmap;
 import android.speech.tts.TextToSpeech;
 import android.util.Log;
 
-import org.opencv.android.Utils;
-import org.opencv.core.Core;
+import org.opencv.android.StageProfiler;
 import org.opencv.core.Mat;
-import org.opencv.core.MatOfRect;
 import org.opencv.core.Point;
 import org.opencv.core.Rect;
 import org.opencv.core.Scalar;
-import org.opencv.core.Size;
 import org.opencv.imgproc.Imgproc;
-import org.opencv.objdetect.CascadeClassifier;
 import org.tensorflow.lite.Interpreter;
-import org.tensorflow.lite.gpu.GpuDelegate;
+import org.tensorflow.lite.Delegate;
 
-import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.Locale;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class FacialExpressionRecognition {
-    private final Interpreter interpreter;
+    private static final int NUM_CLASSES = 7;
+    // a thread count the governor asks for has to hold this long before the interpreter is rebuilt
+    private static final long THREAD_CHANGE_HOLD_NANOS = 5000000000L;
+    private final MappedByteBuffer model;
+    private final InterpreterBackend backend;
+    private final InterpreterEmotionClassifier emotionClassifier;
+    // threads of the current interpreter and the count the governor asked for since when
+    private int interpreterThreads;
+    private int requestedThreads;
+    private long requestedSinceNanos;
+    // kept for as long as the interpreter that uses it
+    private final Delegate delegate;
     private final int INPUT_SIZE;
+    private final FrameAnalyzer frameAnalyzer;
+    // adapts the analysis to the measured latency and the device state
+    private final AnalysisGovernor governor;
+    private final DeviceTelemetry deviceTelemetry;
+    // cores given to OpenCV and to the interpreter, applied once per recognizer
+    private final CpuBudget cpuBudget;
+    // upper bound for the detection width the governor picks
+    private DetectionResolutionPolicy detectionResolutionPolicy;
+    private AnalysisGovernor.Settings appliedSettings;
+    // used on the thread drawing the results, which may not be the analysing one
+    private final FrameOrientation overlayOrientation = new FrameOrientation();
     private TextToSpeech textToSpeech;
-    private CascadeClassifier cascadeClassifier;
+    private FaceDetectorBackend faceDetectorBackend;
+    // loaded by the analysis thread before its next frame, see requestFaceDetectorBackend
+    private final AtomicReference<FaceDetectorBackend> requestedFaceDetectorBackend = new AtomicReference<>();
     private Context classContext;
     private String lastEmotion = "";
     private long lastTimestamp = System.currentTimeMillis();
@@ -44,91 +60,256 @@ public class FacialExpressionRecognition {
         INPUT_SIZE = inputSize;
         classContext = context;
         initializeTextToSpeech();
-        GpuDelegate gpuDelegate = new GpuDelegate();
+        cpuBudget = CpuBudget.forDevice();
+        cpuBudget.apply();
+        Log.d("facial_Expression", "CPU budget: " + cpuBudget);
+        model = loadModelFile(assetManager, modelPath);
+        int interpreterThreads = cpuBudget.getInterpreterThreads();
+        InterpreterBackend selected = BackendSelector.select(context, model, modelPath, interpreterThreads);
+        Delegate selectedDelegate = null;
+        Interpreter selectedInterpreter;
+        try {
+            selectedDelegate = selected.createDelegate();
+            selectedInterpreter = new Interpreter(model, selected.createOptions(selectedDelegate, interpreterThreads));
+        } catch (RuntimeException e) {
+            // an override can name a backend this device does not have
+            Log.w("facial_Expression", selected + " is not usable, running on the CPU", e);
+            InterpreterBackend.close(selectedDelegate);
+            selected = InterpreterBackend.cpu(interpreterThreads);
+            selectedDelegate = null;
+            selectedInterpreter = new Interpreter(model, selected.createOptions(null, interpreterThreads));
+        }
+        backend = selected;
+        delegate = selectedDelegate;
+        this.interpreterThreads = Math.min(backend.getNumThreads(), interpreterThreads);
+        requestedThreads = this.interpreterThreads;
+        emotionClassifier = new InterpreterEmotionClassifier(selectedInterpreter);
+
+        Log.d("facial_Expression","Model is loaded on " + backend);
+
+        // load the face detector, cascades are extracted and parsed once, see CascadeCache
+        SearchWindowDetector searchWindowDetector = null;
+        FaceDetector faceDetector = createFaceDetector(FaceDetectorBackend.preferred(context));
+        if (faceDetector != null) {
+            searchWindowDetector = new SearchWindowDetector(faceDetector);
+        }
 
-        Interpreter.Options options = new Interpreter.Options();
-        options.addDelegate(gpuDelegate);
-        options.setNumThreads(4);
-        interpreter = new Interpreter(loadModelFile(assetManager, modelPath), options);
+        frameAnalyzer = new FrameAnalyzer(inputSize, NUM_CLASSES, searchWindowDetector,
+                emotionClassifier);
+        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        detectionResolutionPolicy = DetectionResolutionPolicy.forDevice(
+                cpuBudget.getCores(),
+                activityManager != null && activityManager.isLowRamDevice());
+        deviceTelemetry = new DeviceTelemetry(context);
+        governor = new AnalysisGovernor(deviceTelemetry.defaultMode());
+        applySettings(governor.getSettings());
+    }
 
-        Log.d("facial_Expression","Model is loaded");
+    // front camera frames are mirrored, see FrameOrientation
+    public void setMirrored(boolean mirrored) {
+        frameAnalyzer.setMirrored(mirrored);
+    }
 
-        // load haar cascade classifier
-        try {
-            InputStream inputStream = context.getResources().openRawResource(R.raw.haarcascade_frontalface_alt);
-            File cascadeDir = context.getDir("cascade",Context.MODE_PRIVATE);
-            File cascadeFile = new File(cascadeDir,"haarcascade_frontalface_alt");
-            FileOutputStream outputStream = new FileOutputStream(cascadeFile);
+    public Mat recognizeImage(Mat mat_image) {
+        drawResult(mat_image, analyze(mat_image, System.nanoTime()));
+        return mat_image;
+    }
 
-            byte[] buffer = new byte[4096];
-            int byteRead;
-            while ((byteRead = inputStream.read(buffer)) != -1){
-                outputStream.write(buffer,0, byteRead);
-            }
+    // finds the faces and their emotions without touching mat_image, see FrameAnalyzer
+    public RecognitionResult analyze(Mat mat_image, long timestampNanos) {
+        loadRequestedFaceDetector();
+        return announce(adapt(frameAnalyzer.analyze(mat_image, timestampNanos)));
+    }
 
-            inputStream.close();
-            outputStream.close();
+    // Y and interleaved chroma planes of a camera frame, color is only converted for the faces
+    public RecognitionResult analyze(Mat yPlane, Mat uvPlane, int uvConversion, long timestampNanos) {
+        loadRequestedFaceDetector();
+        return announce(adapt(frameAnalyzer.analyze(yPlane, uvPlane, uvConversion, timestampNanos)));
+    }
 
-            cascadeClassifier = new CascadeClassifier(cascadeFile.getAbsolutePath());
-            Log.d("facial_Expression","Classifier is loaded");
+    // feeds the latency of the frame to the governor, new settings apply from the next frame
+    private RecognitionResult adapt(RecognitionResult result) {
+        long now = System.nanoTime();
+        deviceTelemetry.poll(governor, now);
+        applySettings(governor.onFrame(now - result.getTimestampNanos(), now));
+        adaptInterpreterThreads(now);
+        return result;
+    }
+
+    // the thread count is part of the interpreter options, so a change means a new interpreter;
+    // only on the CPU and XNNPACK, the delegates run the model on their own hardware
+    private void adaptInterpreterThreads(long now) {
+        if (!backend.isCpu() && backend != InterpreterBackend.XNNPACK) {
+            return;
         }
-        catch (IOException e) {
-            e.printStackTrace();
+        // the benchmarked thread count and the CPU budget are upper bounds
+        int threads = Math.min(appliedSettings.getInterpreterThreads(),
+                Math.min(backend.getNumThreads(), cpuBudget.getInterpreterThreads()));
+        if (threads != requestedThreads) {
+            requestedThreads = threads;
+            requestedSinceNanos = now;
+        }
+        if (requestedThreads == interpreterThreads || now - requestedSinceNanos < THREAD_CHANGE_HOLD_NANOS) {
+            return;
+        }
+        try {
+            emotionClassifier.setInterpreter(new Interpreter(model, backend.createOptions(null, requestedThreads)));
+        } catch (RuntimeException e) {
+            Log.w("facial_Expression", "Cannot recreate the interpreter with " + requestedThreads + " threads", e);
+            requestedThreads = interpreterThreads;
+            return;
         }
+        interpreterThreads = requestedThreads;
+        Log.d("facial_Expression", "Interpreter runs on " + interpreterThreads + " threads");
     }
 
-    public Mat recognizeImage(Mat mat_image) {
-        Core.flip(mat_image.t(),mat_image,1);
-        Mat grayscaleImage = new Mat();
-        Imgproc.cvtColor(mat_image,grayscaleImage, Imgproc.COLOR_RGBA2GRAY);
-
-        int height = grayscaleImage.height();
-        int absoluteFaceSize = (int) (height * 0.1);
+    // closes the interpreter and its delegate and stops the speech, see RecognizerEngine;
+    // the cascade stays in CascadeCache
+    public void release() {
+        emotionClassifier.close();
+        InterpreterBackend.close(delegate);
+        textToSpeech.shutdown();
+        SearchWindowDetector searchWindowDetector = frameAnalyzer.getSearchWindowDetector();
+        if (searchWindowDetector != null) {
+            searchWindowDetector.release();
+        }
+        frameAnalyzer.release();
+        overlayOrientation.release();
+    }
 
-        MatOfRect faces = new MatOfRect();
+    public void warmUp() {
+        frameAnalyzer.warmUp();
+    }
 
-        if(cascadeClassifier != null) {
-            // detect face in frame
-            cascadeClassifier.detectMultiScale(grayscaleImage, faces,1.1,2,2,
-                    new Size(absoluteFaceSize, absoluteFaceSize), new Size());
+    private void applySettings(AnalysisGovernor.Settings settings) {
+        if (settings == appliedSettings) {
+            return;
         }
+        Log.d("facial_Expression", "Analysis settings: " + settings);
+        frameAnalyzer.getFaceTracker().setRedetectInterval(settings.getRedetectInterval());
+        frameAnalyzer.setDetectionResolutionPolicy(detectionResolutionPolicy.limitedTo(settings.getDetectionWidth()));
+        frameAnalyzer.setMaxFaces(settings.getMaxFaces());
+        // the thread count applies once it held for a while, see adaptInterpreterThreads
+        appliedSettings = settings;
+    }
 
-        Rect[] faceArray = faces.toArray();
-        if (faceArray.length == 0) {
+    private RecognitionResult announce(RecognitionResult result) {
+        if (result.getFaceCount() == 0) {
             alertUserToFindFace();
+        } else {
+            lastTimestamp = System.currentTimeMillis();
         }
+        for (int i = 0; i < result.getFaceCount(); i++) {
+            speak(result.getEmotion(i));
+        }
+        return result;
+    }
 
-        for (int i=0; i<faceArray.length; i++) {
-            lastTimestamp = System.currentTimeMillis();
-            Imgproc.rectangle(mat_image,faceArray[i].tl(),faceArray[i].br(),new Scalar(0,255,0,255),4);
-
-                        // starting x coordinate       starting y coordinate
-            Rect roi = new Rect((int)faceArray[i].tl().x,(int)faceArray[i].tl().y,
-                    ((int)faceArray[i].br().x)-(int)(faceArray[i].tl().x), //width  of the roi
-                    ((int)faceArray[i].br().y)-(int)(faceArray[i].tl().y)); //height of the roi
-
-            Mat cropped_rgba = new Mat(mat_image,roi);
-
-            Bitmap bitmap;
-            bitmap = Bitmap.createBitmap(cropped_rgba.cols(), cropped_rgba.rows(), Bitmap.Config.ARGB_8888);
-            Utils.matToBitmap(cropped_rgba, bitmap);
-            Bitmap scaledBitmap = Bitmap.createScaledBitmap(bitmap,48,48,false);
-            ByteBuffer byteBuffer = convertBitmapToByteBuffer(scaledBitmap);
-
-            int numClasses = 7;
-            float[][] emotion = new float[1][numClasses];
-            //predict emotion
-            interpreter.run(byteBuffer, emotion);
-
-            String emotionString = getEmotion(emotion);
-            speak(emotionString);
-            Imgproc.putText(mat_image,emotionString,
-                    new Point((int)faceArray[i].tl().x + 10,(int)faceArray[i].tl().y - 10),
+    // draws the boxes and labels of result on a frame in sensor orientation
+    public void drawResult(Mat mat_image, RecognitionResult result) {
+        long stageStart = StageProfiler.begin();
+        overlayOrientation.setMirrored(result.isMirrored());
+        for (int i = 0; i < result.getFaceCount(); i++) {
+            Rect face = result.getFace(i);
+            Rect roi = overlayOrientation.toFrame(face, mat_image.cols(), mat_image.rows());
+            Imgproc.rectangle(mat_image,roi.tl(),roi.br(),new Scalar(0,255,0,255),4);
+            overlayOrientation.putText(mat_image,result.getEmotion(i),
+                    new Point(face.x + 10,face.y - 10),
                     2,4,new Scalar(237,9,9,150),4);
         }
+        StageProfiler.end(StageProfiler.Stage.OVERLAY, stageStart);
+    }
 
-        Core.flip(mat_image.t(), mat_image,0);
-        return mat_image;
+    // caps the detection width the governor picks, call on the analysis thread
+    public void setDetectionResolutionPolicy(DetectionResolutionPolicy detectionResolutionPolicy) {
+        this.detectionResolutionPolicy = detectionResolutionPolicy;
+        frameAnalyzer.setDetectionResolutionPolicy(detectionResolutionPolicy.limitedTo(
+                governor.getSettings().getDetectionWidth()));
+    }
+
+    public DetectionResolutionPolicy getDetectionResolutionPolicy() {
+        return frameAnalyzer.getDetectionResolutionPolicy();
+    }
+
+    public InterpreterBackend getBackend() {
+        return backend;
+    }
+
+    // any thread; parsing a cascade or a network takes long enough to stall the main thread, so
+    // the detector is swapped by the thread analysing the frames, before its next one
+    public void requestFaceDetectorBackend(FaceDetectorBackend backend) {
+        requestedFaceDetectorBackend.set(backend);
+    }
+
+    private void loadRequestedFaceDetector() {
+        FaceDetectorBackend backend = requestedFaceDetectorBackend.getAndSet(null);
+        if (backend != null) {
+            setFaceDetectorBackend(backend);
+        }
+    }
+
+    // not while frames are analysed; keeps the current detector when the new one cannot be loaded
+    public boolean setFaceDetectorBackend(FaceDetectorBackend backend) {
+        SearchWindowDetector searchWindowDetector = frameAnalyzer.getSearchWindowDetector();
+        if (searchWindowDetector == null) {
+            return false;
+        }
+        if (backend == faceDetectorBackend) {
+            return true;
+        }
+        try {
+            searchWindowDetector.setFaceDetector(backend.create(classContext)).release();
+        } catch (IOException | RuntimeException e) {
+            Log.w("facial_Expression", "Cannot load the " + backend + " face detector", e);
+            return false;
+        }
+        faceDetectorBackend = backend;
+        Log.d("facial_Expression", backend + " face detector is loaded");
+        return true;
+    }
+
+    // null when no detector could be loaded
+    public FaceDetectorBackend getFaceDetectorBackend() {
+        return faceDetectorBackend;
+    }
+
+    public CpuBudget getCpuBudget() {
+        return cpuBudget;
+    }
+
+    public AnalysisGovernor getGovernor() {
+        return governor;
+    }
+
+    // share of the faces whose scores were reused, see InferenceCache
+    public float getInferenceCacheHitRate() {
+        return frameAnalyzer.getInferenceCacheHitRate();
+    }
+
+    public int getSkippedInferenceCount() {
+        return frameAnalyzer.getSkippedInferenceCount();
+    }
+
+    public FaceTracker getFaceTracker() {
+        return frameAnalyzer.getFaceTracker();
+    }
+
+    // null when no face detector could be loaded
+    public SearchWindowDetector getSearchWindowDetector() {
+        return frameAnalyzer.getSearchWindowDetector();
+    }
+
+    // falls back to the Haar cascade, null when that cannot be loaded either
+    private FaceDetector createFaceDetector(FaceDetectorBackend backend) {
+        try {
+            FaceDetector faceDetector = backend.create(classContext);
+            faceDetectorBackend = backend;
+            Log.d("facial_Expression", backend + " face detector is loaded");
+            return faceDetector;
+        } catch (IOException | RuntimeException e) {
+            Log.w("facial_Expression", "Cannot load the " + backend + " face detector", e);
+        }
+        return backend == FaceDetectorBackend.HAAR ? null : createFaceDetector(FaceDetectorBackend.HAAR);
     }
 
     private void alertUserToFindFace() {
@@ -144,55 +325,18 @@ public class FacialExpressionRecognition {
         }
     }
 
-    private int argmax(float[] array) {
-        int maxIndex = 0;
-        for (int i = 1; i < array.length; i++) {
-            if (array[i] > array[maxIndex]) {
-                maxIndex = i;
-            }
-        }
-        return maxIndex;
-    }
-
     // 0: Angry, 1: Disgust, 2: Fear, 3:Happy, 4: Sad, 5: Neutral , 6: Surprise
     public String getEmotion(float[][] emotion){
-        String emotionString = "";
-        switch (argmax(emotion[0])) {
-            case 3:
-                emotionString = "Happy";
-                break;
-            case 4:
-                emotionString = "Neutral";
-                break;
-            case 6:
-                emotionString = "Surprise";
-                break;
-        }
-        return emotionString;
-    }
-
-    private ByteBuffer convertBitmapToByteBuffer(Bitmap scaledBitmap) {
-        ByteBuffer byteBuffer;
-        int size_image = INPUT_SIZE;
-
-        byteBuffer = ByteBuffer.allocateDirect(4 * size_image * size_image * 3);
-        byteBuffer.order(ByteOrder.nativeOrder());
-        int[] intValues=new int[size_image*size_image];
-        scaledBitmap.getPixels(intValues,0,scaledBitmap.getWidth(),0,0,scaledBitmap.getWidth(),scaledBitmap.getHeight());
-        int pixel = 0;
-
-        for(int i = 0; i < size_image; ++i){
-            for(int j = 0; j < size_image; ++j){
-                final int val = intValues[pixel++];
-                //convert image from 0-255 to 0-1
-                byteBuffer.putFloat((((val>>16)&0xFF))/255.0f); //extracts the red value
-                byteBuffer.putFloat((((val>>8)&0xFF))/255.0f); //extracts the green value
-                byteBuffer.putFloat(((val & 0xFF))/255.0f); //extracts the blue value
-            }
-        }
-        return byteBuffer;
+        return getEmotion(emotion[0]);
+    }
+
+    public String getEmotion(float[] scores){
+        return getEmotionName(EmotionSmoother.argmax(scores));
     }
 
+    public String getEmotionName(int emotionIndex){
+        return FrameAnalyzer.getEmotionName(emotionIndex);
+    }
 
     private MappedByteBuffer loadModelFile(AssetManager assetManager, String modelPath) throws IOException {
         AssetFileDescriptor assetFileDescriptor = assetManager.openFd(modelPath);
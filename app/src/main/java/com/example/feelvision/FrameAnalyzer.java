@@ -0,0 +1,404 @@
+package com.example.feelvision;
+
+import org.opencv.android.StageProfiler;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.Arrays;
+
+// Detection, tracking and classification of one RGBA frame in sensor orientation, without
+// any Android dependency so recorded frames can be replayed through it on a desktop JVM.
+// FacialExpressionRecognition adds the interpreter, the speech and the overlay around it.
+public class FrameAnalyzer {
+    private static final int MAX_SMOOTHED_FACES = 8;
+
+    private final TensorArena tensorArena;
+    private final FacePreprocessor facePreprocessor;
+    private final FrameOrientation frameOrientation = new FrameOrientation();
+    private final Mat grayscaleImage = new Mat();
+    private final Mat detectionImage = new Mat();
+    private final Mat uprightGrayscaleImage = new Mat();
+    // color face region converted from a YUV frame
+    private final Mat faceImage = new Mat();
+    private final FaceTracker faceTracker = new FaceTracker();
+    private final OpticalFlowTracker opticalFlowTracker = new OpticalFlowTracker();
+    private final EmotionSmootherPool emotionSmootherPool;
+    private final SearchWindowDetector searchWindowDetector;
+    private final EmotionClassifier emotionClassifier;
+    private DetectionResolutionPolicy detectionResolutionPolicy =
+            new DetectionResolutionPolicy(DetectionResolutionPolicy.FULL_RESOLUTION);
+    private double detectionScale = 1;
+    private int maxFaces = Integer.MAX_VALUE;
+    private boolean batchResizeSupported = true;
+    // false from a resize of the input until a batch ran at the new size
+    private boolean batchRunVerified = true;
+    // faces of the current batch, by slot
+    private int[] batchFaces = new int[1];
+    private double inferenceCacheThreshold = 0.06;
+    private long inferenceCacheMaxAgeNanos = 500000000L;
+    private int inferenceCacheHits;
+    private int inferenceCacheMisses;
+    private int inferenceCount;
+    private int skippedInferenceCount;
+
+    // without a detector no face is found; without a classifier faces are still cropped and
+    // preprocessed, but no emotion is reported
+    public FrameAnalyzer(int inputSize, int numClasses, SearchWindowDetector searchWindowDetector,
+                         EmotionClassifier emotionClassifier) {
+        tensorArena = emotionClassifier == null ? new TensorArena(inputSize, 3, numClasses)
+                : new TensorArena(inputSize, emotionClassifier.getInputChannels(), numClasses,
+                        emotionClassifier.getInputSpec(), emotionClassifier.getOutputSpec());
+        facePreprocessor = new FacePreprocessor(tensorArena, frameOrientation);
+        emotionSmootherPool = new EmotionSmootherPool(numClasses, MAX_SMOOTHED_FACES);
+        this.searchWindowDetector = searchWindowDetector;
+        this.emotionClassifier = emotionClassifier;
+    }
+
+    // front camera frames are mirrored, see FrameOrientation
+    public void setMirrored(boolean mirrored) {
+        frameOrientation.setMirrored(mirrored);
+        // boxes of the other camera are meaningless
+        faceTracker.reset();
+        emotionSmootherPool.reset();
+    }
+
+    public boolean isMirrored() {
+        return frameOrientation.isMirrored();
+    }
+
+    // finds the faces and their emotions without touching mat_image
+    public RecognitionResult analyze(Mat mat_image, long timestampNanos) {
+        long grayStart = StageProfiler.begin();
+        Imgproc.cvtColor(mat_image,grayscaleImage, Imgproc.COLOR_RGBA2GRAY);
+        return analyze(grayscaleImage, mat_image, null, 0, timestampNanos, grayStart);
+    }
+
+    // same for a semi-planar YUV frame, see CameraBridgeViewBase.CvCameraViewYuvFrame: the Y
+    // plane is the gray image and only the face regions are converted to color
+    public RecognitionResult analyze(Mat yPlane, Mat uvPlane, int uvConversion, long timestampNanos) {
+        return analyze(yPlane, null, uvPlane, uvConversion, timestampNanos, StageProfiler.begin());
+    }
+
+    // the face crops come from rgbaImage when it is set, from the YUV planes otherwise
+    private RecognitionResult analyze(Mat grayImage, Mat rgbaImage, Mat uvPlane, int uvConversion,
+                                      long timestampNanos, long grayStart) {
+        // detection runs on an upright, downscaled gray copy, the frame keeps the sensor orientation
+        double scale = detectionResolutionPolicy.scaleFor(grayImage.rows());
+        if (scale != detectionScale) {
+            // tracked boxes are in detection image coordinates
+            faceTracker.reset();
+            detectionScale = scale;
+        }
+        Mat detectionSource = grayImage;
+        if (scale < 1) {
+            Imgproc.resize(grayImage, detectionImage, new Size(), scale, scale, Imgproc.INTER_AREA);
+            detectionSource = detectionImage;
+        }
+        StageProfiler.end(StageProfiler.Stage.GRAY, grayStart);
+
+        long stageStart = StageProfiler.begin();
+        frameOrientation.toUpright(detectionSource, uprightGrayscaleImage);
+        StageProfiler.end(StageProfiler.Stage.ORIENTATION, stageStart);
+
+        Rect[] faceArray;
+        if (faceTracker.shouldDetect()) {
+            stageStart = StageProfiler.begin();
+            faceArray = largestFaces(detectFaces(uprightGrayscaleImage, timestampNanos), maxFaces);
+            faceTracker.onDetection(faceArray);
+            opticalFlowTracker.reset(uprightGrayscaleImage, faceArray);
+            StageProfiler.end(StageProfiler.Stage.DETECT, stageStart);
+        } else {
+            stageStart = StageProfiler.begin();
+            faceArray = trackFaces(uprightGrayscaleImage);
+            StageProfiler.end(StageProfiler.Stage.TRACK, stageStart);
+        }
+
+        Rect[] faces = new Rect[faceArray.length];
+        String[] emotions = new String[faceArray.length];
+        for (int i=0; i<faceArray.length; i++) {
+            faces[i] = clamp(DetectionResolutionPolicy.toFullResolution(faceArray[i], scale),
+                    grayImage.rows(), grayImage.cols());
+        }
+        EmotionSmoother[] smoothers = emotionSmootherPool.assign(faces);
+        if (faces.length > 0) {
+            classifyFaces(grayImage, rgbaImage, uvPlane, uvConversion, faces, smoothers, emotions, timestampNanos);
+        }
+
+        return new RecognitionResult(faces, emotions, frameOrientation.isMirrored(), timestampNanos);
+    }
+
+    // all faces go through the classifier in a single call, or in as few calls as the
+    // largest batch the classifier accepted; faces whose crop did not change since they were
+    // last classified reuse their scores and take no place in the batch, see InferenceCache
+    private void classifyFaces(Mat grayImage, Mat rgbaImage, Mat uvPlane, int uvConversion, Rect[] faces,
+                               EmotionSmoother[] smoothers, String[] emotions, long timestampNanos) {
+        int needed = tensorArena.capacityFor(faces.length);
+        if (emotionClassifier != null && batchResizeSupported && needed > tensorArena.getBatchCapacity()) {
+            if (emotionClassifier.resizeInput(tensorArena.getInputShape(needed))) {
+                tensorArena.ensureBatchCapacity(faces.length);
+                batchRunVerified = false;
+            } else {
+                batchResizeSupported = false;
+            }
+        }
+
+        int capacity = tensorArena.getBatchCapacity();
+        if (batchFaces.length < capacity) {
+            batchFaces = new int[capacity];
+        }
+        int runs = 0;
+        int count = 0;
+        for (int face = 0; face < faces.length; face++) {
+            cropFace(grayImage, rgbaImage, uvPlane, uvConversion, faces[face], count);
+            if (emotionClassifier == null) {
+                emotions[face] = "";
+                continue;
+            }
+            if (face < MAX_SMOOTHED_FACES && inferenceCacheThreshold > 0) {
+                InferenceCache inferenceCache = smoothers[face].getInferenceCache();
+                if (inferenceCache.reuse(facePreprocessor.getSignature(), timestampNanos,
+                        inferenceCacheThreshold, inferenceCacheMaxAgeNanos)) {
+                    inferenceCacheHits++;
+                    emotions[face] = getEmotionName(smoothers[face].update(inferenceCache.getScores()));
+                    continue;
+                }
+                inferenceCacheMisses++;
+            }
+            batchFaces[count++] = face;
+            if (count == capacity) {
+                runs += classifyBatch(count, smoothers, emotions);
+                count = 0;
+            }
+        }
+        if (count > 0) {
+            runs += classifyBatch(count, smoothers, emotions);
+        }
+        if (emotionClassifier != null) {
+            inferenceCount += runs;
+            skippedInferenceCount += (batchResizeSupported ? (faces.length + capacity - 1) / capacity
+                    : faces.length) - runs;
+        }
+    }
+
+    // runs the classifier on the first count slots, which hold the faces of batchFaces;
+    // returns the number of classifier runs
+    private int classifyBatch(int count, EmotionSmoother[] smoothers, String[] emotions) {
+        //predict emotion
+        long inferenceStart = StageProfiler.begin();
+        int runs = runClassifier(count);
+        StageProfiler.end(StageProfiler.Stage.INFERENCE, inferenceStart);
+        float[][] emotion = tensorArena.readOutput(count);
+
+        for (int i = 0; i < count; i++) {
+            // only emotions that held for a few frames are reported, see EmotionSmoother
+            int face = batchFaces[i];
+            if (face < MAX_SMOOTHED_FACES) {
+                smoothers[face].getInferenceCache().store(emotion[i]);
+                emotions[face] = getEmotionName(smoothers[face].update(emotion[i]));
+            } else {
+                emotions[face] = getEmotionName(EmotionSmoother.argmax(emotion[i]));
+            }
+        }
+        return runs;
+    }
+
+    // the whole batch at once when the classifier runs it, one face at a time otherwise.
+    // GPU and NNAPI delegates can accept a larger batch and only fail when it runs, the first
+    // run after a resize then falls back to single faces for good
+    private int runClassifier(int count) {
+        if (batchResizeSupported && batchRunVerified) {
+            emotionClassifier.run(tensorArena.input(), tensorArena.outputBuffer());
+            return 1;
+        }
+        if (batchResizeSupported) {
+            try {
+                emotionClassifier.run(tensorArena.input(), tensorArena.outputBuffer());
+                batchRunVerified = true;
+                return 1;
+            } catch (RuntimeException e) {
+                batchResizeSupported = false;
+                emotionClassifier.resizeInput(tensorArena.getInputShape(1));
+            }
+        }
+        for (int slot = 0; slot < count; slot++) {
+            emotionClassifier.run(tensorArena.inputSlice(slot), tensorArena.outputSlice(slot));
+        }
+        return count;
+    }
+
+    // face is upright at full resolution, it is cropped from the frame in sensor orientation;
+    // grayscale models take the crop of the gray image, no color is converted for them
+    private void cropFace(Mat grayImage, Mat rgbaImage, Mat uvPlane, int uvConversion, Rect face, int slot) {
+        long stageStart = StageProfiler.begin();
+        Rect roi = frameOrientation.toFrame(face, grayImage.cols(), grayImage.rows());
+        Mat cropped_face;
+        if (tensorArena.getChannels() == 1) {
+            cropped_face = new Mat(grayImage, roi);
+        } else if (rgbaImage != null) {
+            cropped_face = new Mat(rgbaImage,roi);
+        } else {
+            cropped_face = faceImage;
+            convertRoi(grayImage, uvPlane, uvConversion, roi, cropped_face);
+        }
+        StageProfiler.end(StageProfiler.Stage.ROI_CROP, stageStart);
+
+        stageStart = StageProfiler.begin();
+        facePreprocessor.process(cropped_face, slot);
+        if (cropped_face != faceImage) {
+            cropped_face.release();
+        }
+        StageProfiler.end(StageProfiler.Stage.PREPROCESS, stageStart);
+    }
+
+    // converts only the face region of a semi-planar YUV frame to RGBA; chroma is subsampled
+    // by two, so the region is widened to even coordinates
+    private static void convertRoi(Mat yPlane, Mat uvPlane, int uvConversion, Rect roi, Mat rgba) {
+        int x = roi.x & ~1;
+        int y = roi.y & ~1;
+        int right = Math.min(yPlane.cols() & ~1, (roi.x + roi.width + 1) & ~1);
+        int bottom = Math.min(yPlane.rows() & ~1, (roi.y + roi.height + 1) & ~1);
+        Mat yRoi = yPlane.submat(y, bottom, x, right);
+        Mat uvRoi = uvPlane.submat(y / 2, bottom / 2, x / 2, right / 2);
+        Imgproc.cvtColorTwoPlane(yRoi, uvRoi, rgba, uvConversion);
+        yRoi.release();
+        uvRoi.release();
+    }
+
+    // one inference on a blank batch, so that the first frame does not pay for what the
+    // interpreter initializes lazily, such as the GPU kernels
+    public void warmUp() {
+        if (emotionClassifier != null) {
+            emotionClassifier.run(tensorArena.input(), tensorArena.outputBuffer());
+        }
+    }
+
+    public void setDetectionResolutionPolicy(DetectionResolutionPolicy detectionResolutionPolicy) {
+        this.detectionResolutionPolicy = detectionResolutionPolicy;
+    }
+
+    public DetectionResolutionPolicy getDetectionResolutionPolicy() {
+        return detectionResolutionPolicy;
+    }
+
+    // faces beyond the limit are neither tracked nor classified, the largest ones are kept
+    public void setMaxFaces(int maxFaces) {
+        this.maxFaces = Math.max(1, maxFaces);
+    }
+
+    public int getMaxFaces() {
+        return maxFaces;
+    }
+
+    // largest per cell difference of the face signatures below which the scores of the last
+    // inference are reused, between 0 and 1 of the pixel range; 0 runs every face
+    public void setInferenceCacheThreshold(double inferenceCacheThreshold) {
+        this.inferenceCacheThreshold = inferenceCacheThreshold;
+    }
+
+    // scores older than this are computed again however little the face changed
+    public void setInferenceCacheMaxAgeNanos(long inferenceCacheMaxAgeNanos) {
+        this.inferenceCacheMaxAgeNanos = inferenceCacheMaxAgeNanos;
+    }
+
+    public int getInferenceCacheHitCount() {
+        return inferenceCacheHits;
+    }
+
+    public int getInferenceCacheMissCount() {
+        return inferenceCacheMisses;
+    }
+
+    // share of the tracked faces that reused their scores
+    public float getInferenceCacheHitRate() {
+        int total = inferenceCacheHits + inferenceCacheMisses;
+        return total == 0 ? 0 : inferenceCacheHits / (float) total;
+    }
+
+    public int getInferenceCount() {
+        return inferenceCount;
+    }
+
+    // classifier runs saved because the faces of a batch all reused their scores
+    public int getSkippedInferenceCount() {
+        return skippedInferenceCount;
+    }
+
+    public void resetInferenceCacheCounters() {
+        inferenceCacheHits = 0;
+        inferenceCacheMisses = 0;
+        inferenceCount = 0;
+        skippedInferenceCount = 0;
+    }
+
+    public FaceTracker getFaceTracker() {
+        return faceTracker;
+    }
+
+    public SearchWindowDetector getSearchWindowDetector() {
+        return searchWindowDetector;
+    }
+
+    public void release() {
+        grayscaleImage.release();
+        detectionImage.release();
+        uprightGrayscaleImage.release();
+        faceImage.release();
+        opticalFlowTracker.release();
+        facePreprocessor.release();
+        frameOrientation.release();
+    }
+
+    // 0: Angry, 1: Disgust, 2: Fear, 3:Happy, 4: Sad, 5: Neutral , 6: Surprise
+    public static String getEmotionName(int emotionIndex){
+        String emotionString = "";
+        switch (emotionIndex) {
+            case 3:
+                emotionString = "Happy";
+                break;
+            case 4:
+                emotionString = "Neutral";
+                break;
+            case 6:
+                emotionString = "Surprise";
+                break;
+        }
+        return emotionString;
+    }
+
+    // searches around the faces seen last, see SearchWindowDetector for when the whole frame is scanned
+    private Rect[] detectFaces(Mat grayscaleImage, long timestampNanos) {
+        if (searchWindowDetector == null) {
+            return new Rect[0];
+        }
+        return searchWindowDetector.detect(grayscaleImage, faceTracker.getFaces(), timestampNanos);
+    }
+
+    // moves the faces of the last detection with optical flow instead of running the cascade
+    private Rect[] trackFaces(Mat grayscaleImage) {
+        int count = opticalFlowTracker.getTrackCount();
+        Rect[] tracked = new Rect[count];
+        float[] confidences = new float[count];
+        opticalFlowTracker.track(grayscaleImage, tracked, confidences);
+        faceTracker.onTracked(tracked, confidences);
+        return tracked;
+    }
+
+    private static Rect[] largestFaces(Rect[] faces, int maxFaces) {
+        if (faces.length <= maxFaces) {
+            return faces;
+        }
+        Rect[] sorted = faces.clone();
+        Arrays.sort(sorted, (a, b) -> Double.compare(b.area(), a.area()));
+        return Arrays.copyOf(sorted, maxFaces);
+    }
+
+    private static Rect clamp(Rect face, int width, int height) {
+        int x = Math.max(0, face.x);
+        int y = Math.max(0, face.y);
+        int right = Math.min(width, face.x + face.width);
+        int bottom = Math.min(height, face.y + face.height);
+        return new Rect(x, y, Math.max(1, right - x), Math.max(1, bottom - y));
+    }
+}
@@ -0,0 +1,111 @@
+package com.example.feelvision;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+// Maps between the camera frame as delivered by the sensor and the upright view the
+// cascade and the model expect. Only small images (gray frame, face crops, labels) are
+// rotated; the full resolution RGBA frame stays in sensor orientation.
+//
+// Back camera: upright = frame rotated 90 degrees clockwise.
+// Front camera: the frame is also mirrored, which makes the mapping an anti-transpose.
+// The mirror on screen is applied by the camera view when it draws the frame.
+public class FrameOrientation {
+    private boolean mirrored;
+    private final Mat label = new Mat();
+    private final Mat rotatedLabel = new Mat();
+    private final Mat labelMask = new Mat();
+    private final int[] baseline = new int[1];
+
+    public void setMirrored(boolean mirrored) {
+        this.mirrored = mirrored;
+    }
+
+    public boolean isMirrored() {
+        return mirrored;
+    }
+
+    // src in sensor orientation -> dst upright
+    public void toUpright(Mat src, Mat dst) {
+        if (mirrored) {
+            Core.rotate(src, dst, Core.ROTATE_90_COUNTERCLOCKWISE);
+            Core.flip(dst, dst, 1);
+        } else {
+            Core.rotate(src, dst, Core.ROTATE_90_CLOCKWISE);
+        }
+    }
+
+    // src upright -> dst in sensor orientation
+    public void toFrame(Mat src, Mat dst) {
+        if (mirrored) {
+            // the anti-transpose is its own inverse
+            toUpright(src, dst);
+        } else {
+            Core.rotate(src, dst, Core.ROTATE_90_COUNTERCLOCKWISE);
+        }
+    }
+
+    // maps a rectangle found in the upright image of a frame with the given sensor size
+    public Rect toFrame(Rect upright, int frameWidth, int frameHeight) {
+        return toFrame(upright, frameWidth, frameHeight, mirrored);
+    }
+
+    // same mapping without an instance, whose Mats need the OpenCV natives
+    public static Rect toFrame(Rect upright, int frameWidth, int frameHeight, boolean mirrored) {
+        int x = mirrored ? frameWidth - upright.y - upright.height : upright.y;
+        int y = frameHeight - upright.x - upright.width;
+        return new Rect(x, y, upright.height, upright.width);
+    }
+
+    // draws text that reads upright on screen, origin given in upright coordinates
+    public void putText(Mat frame, String text, Point uprightOrigin, int fontFace, double fontScale,
+                        Scalar color, int thickness) {
+        Size textSize = Imgproc.getTextSize(text, fontFace, fontScale, thickness, baseline);
+        int width = (int) textSize.width;
+        int height = (int) textSize.height + baseline[0] + thickness;
+        if (width <= 0 || height <= 0) {
+            return;
+        }
+
+        label.create(height, width, CvType.CV_8UC4);
+        label.setTo(Scalar.all(0));
+        Imgproc.putText(label, text, new Point(0, textSize.height), fontFace, fontScale, color, thickness);
+        toFrame(label, rotatedLabel);
+
+        Rect upright = new Rect((int) uprightOrigin.x, (int) (uprightOrigin.y - textSize.height), width, height);
+        Rect target = toFrame(upright, frame.cols(), frame.rows());
+        Rect visible = intersect(target, new Rect(0, 0, frame.cols(), frame.rows()));
+        if (visible.width <= 0 || visible.height <= 0) {
+            return;
+        }
+
+        Mat source = rotatedLabel.submat(new Rect(visible.x - target.x, visible.y - target.y,
+                visible.width, visible.height));
+        Mat destination = frame.submat(visible);
+        // text pixels are the only ones with a non zero alpha
+        Core.extractChannel(source, labelMask, 3);
+        source.copyTo(destination, labelMask);
+        source.release();
+        destination.release();
+    }
+
+    public void release() {
+        label.release();
+        rotatedLabel.release();
+        labelMask.release();
+    }
+
+    private static Rect intersect(Rect a, Rect b) {
+        int x = Math.max(a.x, b.x);
+        int y = Math.max(a.y, b.y);
+        int right = Math.min(a.x + a.width, b.x + b.width);
+        int bottom = Math.min(a.y + a.height, b.y + b.height);
+        return new Rect(x, y, right - x, bottom - y);
+    }
+}
@@ -0,0 +1,58 @@
+package com.example.feelvision;
+
+// Scores of one tracked face and the signature of the crop they were computed from, see
+// FacePreprocessor.getSignature. While the crop keeps looking like that one, the scores are
+// reused instead of running the classifier on a near identical face, for at most the max age.
+// Crops are compared to the last classified one rather than to the previous frame, so a slow
+// change is caught once it adds up.
+public class InferenceCache {
+    private final float[] scores;
+    private byte[] signature = new byte[0];
+    private long timestampNanos;
+    private boolean valid;
+
+    public InferenceCache(int numClasses) {
+        scores = new float[numClasses];
+    }
+
+    // true when the scores can be reused for this crop; otherwise the signature is kept for
+    // the scores the caller passes to store() once the crop is classified.
+    // threshold is the largest difference of any signature cell, 0-1 of the pixel range, so a
+    // change confined to the mouth or the eyes is not averaged away by the rest of the face
+    public boolean reuse(byte[] signature, long timestampNanos, double threshold, long maxAgeNanos) {
+        if (valid && signature.length == this.signature.length
+                && timestampNanos - this.timestampNanos <= maxAgeNanos
+                && difference(signature, this.signature) < threshold) {
+            return true;
+        }
+        if (this.signature.length != signature.length) {
+            this.signature = new byte[signature.length];
+        }
+        System.arraycopy(signature, 0, this.signature, 0, signature.length);
+        this.timestampNanos = timestampNanos;
+        valid = false;
+        return false;
+    }
+
+    public void store(float[] scores) {
+        System.arraycopy(scores, 0, this.scores, 0, this.scores.length);
+        valid = true;
+    }
+
+    public float[] getScores() {
+        return scores;
+    }
+
+    public void reset() {
+        valid = false;
+    }
+
+    // largest absolute difference of two unsigned 8 bit signatures cell by cell, between 0 and 1
+    static double difference(byte[] a, byte[] b) {
+        int max = 0;
+        for (int i = 0; i < a.length; i++) {
+            max = Math.max(max, Math.abs((a[i] & 0xFF) - (b[i] & 0xFF)));
+        }
+        return max / 255.0;
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.feelvision;
+
+import android.os.Build;
+import android.util.Log;
+
+import org.tensorflow.lite.Delegate;
+import org.tensorflow.lite.Interpreter;
+import org.tensorflow.lite.gpu.GpuDelegate;
+import org.tensorflow.lite.nnapi.NnApiDelegate;
+
+// Ways to run the model, see BackendSelector for how one is picked on a device.
+public enum InterpreterBackend {
+    CPU_1(1),
+    CPU_2(2),
+    CPU_4(4),
+    XNNPACK(4),
+    // the thread count of the delegates only matters for the operations they cannot run
+    GPU(4),
+    NNAPI(4);
+
+    private final int numThreads;
+
+    InterpreterBackend(int numThreads) {
+        this.numThreads = numThreads;
+    }
+
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    public boolean isCpu() {
+        return this == CPU_1 || this == CPU_2 || this == CPU_4;
+    }
+
+    // the CPU backend with the most threads that stays within maxThreads
+    public static InterpreterBackend cpu(int maxThreads) {
+        if (maxThreads >= 4) {
+            return CPU_4;
+        }
+        return maxThreads >= 2 ? CPU_2 : CPU_1;
+    }
+
+    public boolean isAvailable() {
+        // NNAPI before Android 8.1 lacks most of the operations of the model
+        return this != NNAPI || Build.VERSION.SDK_INT >= 27;
+    }
+
+    // null for the CPU backends; the delegate has to outlive the interpreter, see close()
+    public Delegate createDelegate() {
+        switch (this) {
+            case GPU:
+                return new GpuDelegate();
+            case NNAPI:
+                return new NnApiDelegate();
+            default:
+                return null;
+        }
+    }
+
+    public Interpreter.Options createOptions(Delegate delegate) {
+        return createOptions(delegate, numThreads);
+    }
+
+    // maxThreads caps the thread count of the backend, see CpuBudget
+    public Interpreter.Options createOptions(Delegate delegate, int maxThreads) {
+        Interpreter.Options options = new Interpreter.Options();
+        options.setNumThreads(Math.min(numThreads, maxThreads));
+        if (this == XNNPACK) {
+            options.setUseXNNPACK(true);
+        }
+        if (delegate != null) {
+            options.addDelegate(delegate);
+        }
+        return options;
+    }
+
+    public static void close(Delegate delegate) {
+        if (delegate instanceof AutoCloseable) {
+            try {
+                ((AutoCloseable) delegate).close();
+            } catch (Exception e) {
+                Log.w("facial_Expression", "Cannot close the delegate", e);
+            }
+        }
+    }
+}
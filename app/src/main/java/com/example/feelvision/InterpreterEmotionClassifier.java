@@ -0,0 +1,108 @@
+package com.example.feelvision;
+
+import android.util.Log;
+
+import org.tensorflow.lite.Interpreter;
+import org.tensorflow.lite.Tensor;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+public class InterpreterEmotionClassifier implements EmotionClassifier {
+    private Interpreter interpreter;
+    private final int inputChannels;
+    // shape of the model, batch of one
+    private final int[] baseInputShape;
+    // shape the interpreter is allocated for, carried over by setInterpreter
+    private int[] inputShape;
+    private final TensorSpec inputSpec;
+    private final TensorSpec outputSpec;
+
+    public InterpreterEmotionClassifier(Interpreter interpreter) {
+        this.interpreter = interpreter;
+        // [batch, height, width, channels], channels may be left out for grayscale models
+        int[] inputShape = interpreter.getInputTensor(0).shape();
+        baseInputShape = inputShape.clone();
+        this.inputShape = baseInputShape;
+        inputChannels = inputShape.length == 4 ? inputShape[3] : 1;
+        if (inputChannels != 1 && inputChannels != 3) {
+            throw new IllegalArgumentException("Unsupported input shape " + Arrays.toString(inputShape));
+        }
+        inputSpec = specOf(interpreter.getInputTensor(0));
+        outputSpec = specOf(interpreter.getOutputTensor(0));
+        Log.d("facial_Expression", "Model input " + inputChannels + " channels " + inputSpec
+                + ", output " + outputSpec);
+    }
+
+    @Override
+    public int getInputChannels() {
+        return inputChannels;
+    }
+
+    @Override
+    public TensorSpec getInputSpec() {
+        return inputSpec;
+    }
+
+    @Override
+    public TensorSpec getOutputSpec() {
+        return outputSpec;
+    }
+
+    @Override
+    public boolean resizeInput(int[] inputShape) {
+        try {
+            interpreter.resizeInput(0, inputShape);
+            // delegates tend to accept the new shape and only fail once it is allocated
+            interpreter.allocateTensors();
+            this.inputShape = inputShape.clone();
+            return true;
+        } catch (RuntimeException e) {
+            // some delegates cannot change the input shape once applied
+            Log.w("facial_Expression", "Cannot resize the input to " + Arrays.toString(inputShape)
+                    + ": " + e.getMessage());
+            if (!Arrays.equals(inputShape, baseInputShape)) {
+                interpreter.resizeInput(0, baseInputShape);
+                interpreter.allocateTensors();
+            }
+            this.inputShape = baseInputShape;
+            return false;
+        }
+    }
+
+    public void close() {
+        interpreter.close();
+    }
+
+    // swaps in an interpreter of the same model, e.g. one with other options, and closes the
+    // current one; keeps the batch the current one was resized to
+    public void setInterpreter(Interpreter replacement) {
+        if (!Arrays.equals(inputShape, baseInputShape)) {
+            replacement.resizeInput(0, inputShape);
+            replacement.allocateTensors();
+        }
+        interpreter.close();
+        interpreter = replacement;
+    }
+
+    @Override
+    public void run(ByteBuffer input, ByteBuffer output) {
+        interpreter.run(input, output);
+    }
+
+    // models with float16 weights still take and give float32, only 8 bit tensors are quantized
+    private static TensorSpec specOf(Tensor tensor) {
+        Tensor.QuantizationParams params = tensor.quantizationParams();
+        switch (tensor.dataType()) {
+            case FLOAT32:
+                return TensorSpec.FLOAT32;
+            case UINT8:
+                return new TensorSpec(TensorSpec.Type.UINT8, params.getScale(), params.getZeroPoint());
+            case INT8:
+                return new TensorSpec(TensorSpec.Type.INT8, params.getScale(), params.getZeroPoint());
+            default:
+                throw new IllegalArgumentException("Unsupported tensor type " + tensor.dataType()
+                        + " of " + tensor.name());
+        }
+    }
+}
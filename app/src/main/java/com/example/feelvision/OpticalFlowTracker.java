@@ -0,0 +1,200 @@
+package com.example.feelvision;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.MatOfFloat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.video.KalmanFilter;
+import org.opencv.video.Video;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Propagates face boxes between two gray frames: a few corners per face are followed with
+// pyramidal Lucas-Kanade, the median displacement moves the box and a constant velocity
+// Kalman filter smooths the box center.
+public class OpticalFlowTracker {
+    private static final int MAX_POINTS = 10;
+    private static final Size WINDOW_SIZE = new Size(15, 15);
+
+    private final Mat previousGray = new Mat();
+    private final List<Track> tracks = new ArrayList<>();
+    private final MatOfPoint corners = new MatOfPoint();
+    private final MatOfPoint2f nextPoints = new MatOfPoint2f();
+    private final MatOfByte status = new MatOfByte();
+    private final MatOfFloat error = new MatOfFloat();
+    private final Mat measurement = new Mat(2, 1, CvType.CV_32F);
+    private final float[] dx = new float[MAX_POINTS];
+    private final float[] dy = new float[MAX_POINTS];
+    private final float[] state = new float[4];
+    private int trackCount;
+
+    // state: center x, center y, velocity x, velocity y; measurement: center x, center y.
+    // The model matrices never change, every filter shares them
+    private final Mat transition = Mat.eye(4, 4, CvType.CV_32F);
+    private final Mat measurementMatrix = Mat.eye(2, 4, CvType.CV_32F);
+    private final Mat processNoise = Mat.eye(4, 4, CvType.CV_32F);
+    private final Mat measurementNoise = Mat.eye(2, 2, CvType.CV_32F);
+
+    {
+        transition.put(0, 2, 1);
+        transition.put(1, 3, 1);
+        processNoise.put(0, 0, 1e-2, 0, 0, 0, 0, 1e-2, 0, 0, 0, 0, 1e-1, 0, 0, 0, 0, 1e-1);
+        measurementNoise.put(0, 0, 1e-1, 0, 0, 1e-1);
+    }
+
+    // tracks are kept across re-detections, a reset only rewrites the state of the filter
+    private static class Track {
+        final KalmanFilter kalman = new KalmanFilter(4, 2, 0, CvType.CV_32F);
+        final MatOfPoint2f points = new MatOfPoint2f();
+        final Mat statePost = new Mat(4, 1, CvType.CV_32F);
+        final Mat errorCovPost = new Mat(4, 4, CvType.CV_32F);
+        Rect box;
+
+        Track(Mat transition, Mat measurementMatrix, Mat processNoise, Mat measurementNoise) {
+            kalman.set_transitionMatrix(transition);
+            kalman.set_measurementMatrix(measurementMatrix);
+            kalman.set_processNoiseCov(processNoise);
+            kalman.set_measurementNoiseCov(measurementNoise);
+        }
+
+        // the Java binding has no explicit release for the filter itself, its native object
+        // goes with the finalizer once the track is dropped
+        void release() {
+            points.release();
+            statePost.release();
+            errorCovPost.release();
+        }
+    }
+
+    // starts new tracks on the faces found by the detector in gray
+    public void reset(Mat gray, Rect[] faces) {
+        gray.copyTo(previousGray);
+
+        trackCount = 0;
+        for (Rect face : faces) {
+            if (trackCount == tracks.size()) {
+                tracks.add(new Track(transition, measurementMatrix, processNoise, measurementNoise));
+            }
+            Track track = tracks.get(trackCount++);
+            track.box = face;
+
+            Mat region = gray.submat(face);
+            Imgproc.goodFeaturesToTrack(region, corners, MAX_POINTS, 0.01, face.width / 10.0);
+            region.release();
+            Point[] found = corners.toArray();
+            for (Point point : found) {
+                point.x += face.x;
+                point.y += face.y;
+            }
+            track.points.fromArray(found);
+
+            initKalman(track, face);
+        }
+    }
+
+    // moves every track to gray, boxes and confidences are filled in the order of the faces given to reset
+    public void track(Mat gray, Rect[] boxes, float[] confidences) {
+        for (int i = 0; i < trackCount; i++) {
+            Track track = tracks.get(i);
+            int total = (int) track.points.total();
+            float confidence = 0;
+            float shiftX = 0;
+            float shiftY = 0;
+
+            if (total > 0) {
+                Video.calcOpticalFlowPyrLK(previousGray, gray, track.points, nextPoints, status, error, WINDOW_SIZE, 2);
+                Point[] previous = track.points.toArray();
+                Point[] next = nextPoints.toArray();
+                byte[] found = status.toArray();
+
+                int count = 0;
+                for (int p = 0; p < found.length && count < MAX_POINTS; p++) {
+                    if (found[p] == 1) {
+                        dx[count] = (float) (next[p].x - previous[p].x);
+                        dy[count] = (float) (next[p].y - previous[p].y);
+                        next[count] = next[p];
+                        count++;
+                    }
+                }
+                confidence = count / (float) total;
+                if (count > 0) {
+                    shiftX = median(dx, count);
+                    shiftY = median(dy, count);
+                    track.points.fromArray(Arrays.copyOf(next, count));
+                } else {
+                    track.points.release();
+                }
+            }
+
+            // predict and correct hand back a new header on the filter state, drop it right away
+            track.kalman.predict().release();
+            measurement.put(0, 0,
+                    track.box.x + track.box.width / 2f + shiftX,
+                    track.box.y + track.box.height / 2f + shiftY);
+            Mat corrected = track.kalman.correct(measurement);
+            corrected.get(0, 0, state);
+            corrected.release();
+
+            int x = Math.round(state[0] - track.box.width / 2f);
+            int y = Math.round(state[1] - track.box.height / 2f);
+            track.box = clamp(new Rect(x, y, track.box.width, track.box.height), gray.cols(), gray.rows());
+            boxes[i] = track.box;
+            confidences[i] = confidence;
+        }
+        gray.copyTo(previousGray);
+    }
+
+    public int getTrackCount() {
+        return trackCount;
+    }
+
+    public void release() {
+        releaseTracks();
+        previousGray.release();
+        corners.release();
+        nextPoints.release();
+        status.release();
+        error.release();
+        measurement.release();
+        transition.release();
+        measurementMatrix.release();
+        processNoise.release();
+        measurementNoise.release();
+    }
+
+    private void releaseTracks() {
+        for (Track track : tracks) {
+            track.release();
+        }
+        tracks.clear();
+        trackCount = 0;
+    }
+
+    private static void initKalman(Track track, Rect face) {
+        Core.setIdentity(track.errorCovPost);
+        track.kalman.set_errorCovPost(track.errorCovPost);
+
+        track.statePost.put(0, 0, face.x + face.width / 2f, face.y + face.height / 2f, 0, 0);
+        track.kalman.set_statePost(track.statePost);
+    }
+
+    private static float median(float[] values, int count) {
+        Arrays.sort(values, 0, count);
+        return values[count / 2];
+    }
+
+    private static Rect clamp(Rect box, int width, int height) {
+        int x = Math.min(Math.max(box.x, 0), Math.max(0, width - box.width));
+        int y = Math.min(Math.max(box.y, 0), Math.max(0, height - box.height));
+        return new Rect(x, y, Math.min(box.width, width), Math.min(box.height, height));
+    }
+}
@@ -0,0 +1,46 @@
+package com.example.feelvision;
+
+import org.opencv.core.Rect;
+
+// Faces and emotions found in one frame. Immutable so the analysis thread can hand it to
+// the camera thread without copying. Face boxes are upright and at full frame resolution.
+public final class RecognitionResult {
+    public static final RecognitionResult EMPTY = new RecognitionResult(new Rect[0], new String[0], false, 0);
+
+    private final Rect[] faces;
+    private final String[] emotions;
+    private final boolean mirrored;
+    private final long timestampNanos;
+
+    public RecognitionResult(Rect[] faces, String[] emotions, boolean mirrored, long timestampNanos) {
+        this.faces = new Rect[faces.length];
+        for (int i = 0; i < faces.length; i++) {
+            this.faces[i] = faces[i].clone();
+        }
+        this.emotions = emotions.clone();
+        this.mirrored = mirrored;
+        this.timestampNanos = timestampNanos;
+    }
+
+    public int getFaceCount() {
+        return faces.length;
+    }
+
+    public Rect getFace(int index) {
+        return faces[index].clone();
+    }
+
+    public String getEmotion(int index) {
+        return emotions[index];
+    }
+
+    // orientation of the frame the faces were found in
+    public boolean isMirrored() {
+        return mirrored;
+    }
+
+    // System.nanoTime() when the analysed frame was taken
+    public long getTimestampNanos() {
+        return timestampNanos;
+    }
+}
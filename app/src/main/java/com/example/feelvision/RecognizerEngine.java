@@ -0,0 +1,129 @@
+package com.example.feelvision;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Process-wide owner of the recognizer, so that the interpreter, its delegate, the speech
+// engine and the cascade are built once instead of on every CameraActivity, and closed
+// instead of leaked. Activities open a session and close it when they are destroyed; the
+// recognizer outlives the last session so that coming back to the camera is immediate, and is
+// only released when the system asks for memory while no session is open.
+//
+// Only one session is expected to analyse frames at a time. All methods run on the main thread.
+public final class RecognizerEngine implements ComponentCallbacks2 {
+    private static final String TAG = "RecognizerEngine";
+    private static final String MODEL_FILE = "model_v4.tflite";
+    private static final int INPUT_SIZE = 48;
+
+    private static RecognizerEngine instance;
+
+    private final Context context;
+    private final RecognizerLoader loader = new RecognizerLoader();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final List<Session> waitingSessions = new ArrayList<>();
+    private FacialExpressionRecognition recognizer;
+    private boolean loading;
+    private int openSessions;
+
+    public final class Session {
+        private final RecognizerLoader.Listener listener;
+        private boolean closed;
+
+        private Session(RecognizerLoader.Listener listener) {
+            this.listener = listener;
+        }
+
+        // null until the listener was called
+        public FacialExpressionRecognition getRecognizer() {
+            return closed ? null : recognizer;
+        }
+
+        // the recognizer must no longer be used once the session is closed
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            waitingSessions.remove(this);
+            openSessions--;
+        }
+
+        private void deliver(FacialExpressionRecognition loaded) {
+            if (!closed) {
+                listener.onRecognizerLoaded(loaded);
+            }
+        }
+    }
+
+    private RecognizerEngine(Context context) {
+        this.context = context.getApplicationContext();
+        this.context.registerComponentCallbacks(this);
+    }
+
+    public static RecognizerEngine get(Context context) {
+        if (instance == null) {
+            instance = new RecognizerEngine(context);
+        }
+        return instance;
+    }
+
+    // the listener is called once the recognizer is ready, right away when it is already
+    // loaded, with null when it cannot be loaded; see RecognizerLoader
+    public Session openSession(RecognizerLoader.Listener listener) {
+        Session session = new Session(listener);
+        openSessions++;
+        if (recognizer != null) {
+            FacialExpressionRecognition loaded = recognizer;
+            mainHandler.post(() -> session.deliver(loaded));
+            return session;
+        }
+        waitingSessions.add(session);
+        if (!loading) {
+            loading = true;
+            loader.load(context, MODEL_FILE, INPUT_SIZE, this::onLoaded);
+        }
+        return session;
+    }
+
+    private void onLoaded(FacialExpressionRecognition loaded) {
+        loading = false;
+        recognizer = loaded;
+        List<Session> sessions = new ArrayList<>(waitingSessions);
+        waitingSessions.clear();
+        for (Session session : sessions) {
+            session.deliver(loaded);
+        }
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        if (level >= TRIM_MEMORY_RUNNING_LOW && openSessions == 0) {
+            releaseRecognizer();
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        onTrimMemory(TRIM_MEMORY_COMPLETE);
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+    }
+
+    private void releaseRecognizer() {
+        if (recognizer == null) {
+            return;
+        }
+        Log.d(TAG, "Releasing the recognizer");
+        recognizer.release();
+        recognizer = null;
+    }
+}
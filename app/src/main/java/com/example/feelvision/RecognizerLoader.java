@@ -0,0 +1,74 @@
+package com.example.feelvision;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import org.opencv.android.OpenCVLoader;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+// Builds FacialExpressionRecognition on a background thread so the camera preview does not
+// wait for it: mapping the model, picking the backend, creating the interpreter and copying
+// the cascade, then one warm-up inference that compiles the GPU kernels before the first frame.
+public class RecognizerLoader {
+    private static final String TAG = "RecognizerLoader";
+
+    public interface Listener {
+        // called on the main thread, with null when loading failed; not called when cancelled
+        void onRecognizerLoaded(FacialExpressionRecognition recognizer);
+    }
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(
+            runnable -> new Thread(runnable, "RecognizerLoader"));
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // the future is done once the recognizer is warmed up, cancel it to drop the result
+    public Future<FacialExpressionRecognition> load(Context context, String modelPath, int inputSize,
+                                                    Listener listener) {
+        FutureTask<FacialExpressionRecognition> task = new FutureTask<FacialExpressionRecognition>(() -> {
+            long start = System.nanoTime();
+            if (!OpenCVLoader.initDebug()) {
+                throw new IllegalStateException("OpenCV is not available");
+            }
+            FacialExpressionRecognition recognizer = new FacialExpressionRecognition(context.getAssets(),
+                    context, modelPath, inputSize);
+            long loaded = System.nanoTime();
+            recognizer.warmUp();
+            Log.i(TAG, "Recognizer loaded in " + (loaded - start) / 1000000 + " ms, warm-up took "
+                    + (System.nanoTime() - loaded) / 1000000 + " ms");
+            return recognizer;
+        }) {
+            @Override
+            protected void done() {
+                if (isCancelled()) {
+                    return;
+                }
+                mainHandler.post(() -> {
+                    if (isCancelled()) {
+                        return;
+                    }
+                    try {
+                        listener.onRecognizerLoaded(get());
+                    } catch (ExecutionException e) {
+                        Log.e(TAG, "Cannot load the recognizer", e.getCause());
+                        listener.onRecognizerLoaded(null);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+            }
+        };
+        executor.execute(task);
+        return task;
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,177 @@
+package com.example.feelvision;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Runs the face detector only inside expanded windows around the faces known from the previous
+// frames, with the face size bounded near the previous one. The whole frame is scanned when
+// there is nothing to look around, periodically so that new faces are picked up, and after
+// the cheap path missed too many times in a row.
+public class SearchWindowDetector {
+    // replaced on the thread that analyses the frames or while none are analysed
+    private FaceDetector faceDetector;
+
+    // the window grows by this fraction of the face size on every side
+    private double windowExpansion = 0.5;
+    // accepted face size relative to the previous one, 0.3 allows 70% to 130%
+    private double sizeTolerance = 0.3;
+    private long fullScanIntervalMs = 1000;
+    private int maxConsecutiveMisses = 2;
+
+    private long lastFullScanTime;
+    private boolean fullScanPending;
+    private int consecutiveMisses;
+    private int hitCount;
+    private int missCount;
+    private int fullScanCount;
+
+    public SearchWindowDetector(FaceDetector faceDetector) {
+        this.faceDetector = faceDetector;
+    }
+
+    // the previous detector is returned, not released; the next frame is scanned in full
+    public FaceDetector setFaceDetector(FaceDetector faceDetector) {
+        FaceDetector previous = this.faceDetector;
+        this.faceDetector = faceDetector;
+        fullScanPending = true;
+        return previous;
+    }
+
+    public FaceDetector getFaceDetector() {
+        return faceDetector;
+    }
+
+    public void setWindowExpansion(double windowExpansion) {
+        this.windowExpansion = windowExpansion;
+    }
+
+    public void setSizeTolerance(double sizeTolerance) {
+        this.sizeTolerance = sizeTolerance;
+    }
+
+    public void setFullScanIntervalMs(long fullScanIntervalMs) {
+        this.fullScanIntervalMs = fullScanIntervalMs;
+    }
+
+    public void setMaxConsecutiveMisses(int maxConsecutiveMisses) {
+        this.maxConsecutiveMisses = maxConsecutiveMisses;
+    }
+
+    public Rect[] detect(Mat grayscaleImage, Rect[] previousFaces) {
+        return detect(grayscaleImage, previousFaces, System.nanoTime());
+    }
+
+    // timestampNanos is the time the frame was taken, replayed frames keep their recorded timing
+    public Rect[] detect(Mat grayscaleImage, Rect[] previousFaces, long timestampNanos) {
+        long now = timestampNanos / 1000000;
+        if (fullScanPending || previousFaces.length == 0 || now - lastFullScanTime >= fullScanIntervalMs
+                || consecutiveMisses >= maxConsecutiveMisses) {
+            lastFullScanTime = now;
+            fullScanPending = false;
+            consecutiveMisses = 0;
+            fullScanCount++;
+            return detectFullFrame(grayscaleImage);
+        }
+
+        List<Rect> found = new ArrayList<>(previousFaces.length);
+        boolean missed = false;
+        for (Rect previous : previousFaces) {
+            Rect face = detectAround(grayscaleImage, previous);
+            if (face == null) {
+                missed = true;
+            } else if (!overlapsAny(face, found)) {
+                found.add(face);
+            }
+        }
+
+        if (missed) {
+            missCount++;
+            consecutiveMisses++;
+        } else {
+            hitCount++;
+            consecutiveMisses = 0;
+        }
+        return found.toArray(new Rect[0]);
+    }
+
+    public int getHitCount() {
+        return hitCount;
+    }
+
+    public int getMissCount() {
+        return missCount;
+    }
+
+    public int getFullScanCount() {
+        return fullScanCount;
+    }
+
+    // share of windowed searches that found every previous face
+    public float getHitRate() {
+        int total = hitCount + missCount;
+        return total == 0 ? 0 : hitCount / (float) total;
+    }
+
+    public void resetCounters() {
+        hitCount = 0;
+        missCount = 0;
+        fullScanCount = 0;
+    }
+
+    public void release() {
+        faceDetector.release();
+    }
+
+    private Rect[] detectFullFrame(Mat grayscaleImage) {
+        int height = grayscaleImage.height();
+        int absoluteFaceSize = (int) (height * 0.1);
+
+        // detect face in frame
+        return faceDetector.detect(grayscaleImage, absoluteFaceSize, 0);
+    }
+
+    private Rect detectAround(Mat grayscaleImage, Rect previous) {
+        int marginX = (int) (previous.width * windowExpansion);
+        int marginY = (int) (previous.height * windowExpansion);
+        int x = Math.max(0, previous.x - marginX);
+        int y = Math.max(0, previous.y - marginY);
+        int right = Math.min(grayscaleImage.cols(), previous.x + previous.width + marginX);
+        int bottom = Math.min(grayscaleImage.rows(), previous.y + previous.height + marginY);
+        if (right <= x || bottom <= y) {
+            return null;
+        }
+
+        Rect window = new Rect(x, y, right - x, bottom - y);
+        double minSize = previous.width * (1 - sizeTolerance);
+        double maxSize = Math.min(Math.min(window.width, window.height), previous.width * (1 + sizeTolerance));
+
+        Mat region = grayscaleImage.submat(window);
+        Rect[] faces = faceDetector.detect(region, minSize, maxSize);
+        region.release();
+
+        Rect best = null;
+        for (Rect face : faces) {
+            if (best == null || face.area() > best.area()) {
+                best = face;
+            }
+        }
+        if (best == null) {
+            return null;
+        }
+        return new Rect(best.x + window.x, best.y + window.y, best.width, best.height);
+    }
+
+    private static boolean overlapsAny(Rect face, List<Rect> others) {
+        for (Rect other : others) {
+            int width = Math.min(face.x + face.width, other.x + other.width) - Math.max(face.x, other.x);
+            int height = Math.min(face.y + face.height, other.y + other.height) - Math.max(face.y, other.y);
+            if (width > 0 && height > 0 && width * height * 2 > Math.min(face.area(), other.area())) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
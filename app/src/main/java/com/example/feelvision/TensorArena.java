@@ -0,0 +1,173 @@
+package com.example.feelvision;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+// Pre-sized input/output tensors reused for every face, so the recognition loop
+// does not allocate a direct buffer and the output array on each inference.
+// Holds a batch of faces; the batch only grows, in powers of two, so the interpreter
+// input is resized a handful of times instead of whenever the face count changes.
+// The buffers use the element types of the model, see TensorSpec: quantized models take
+// their input and give their scores one byte per element.
+public class TensorArena {
+    public interface Allocator {
+        ByteBuffer allocateDirect(int capacity);
+    }
+
+    public static final Allocator DIRECT = ByteBuffer::allocateDirect;
+
+    private final int inputSize;
+    private final int channels;
+    private final int numClasses;
+    private final TensorSpec inputSpec;
+    private final TensorSpec outputSpec;
+    private final Allocator allocator;
+    private int batchCapacity;
+    private ByteBuffer inputBuffer;
+    private FloatBuffer inputFloats;
+    private ByteBuffer outputBuffer;
+    // one face of the input and of the output each, for a classifier that cannot run the batch
+    private ByteBuffer[] inputSlices;
+    private ByteBuffer[] outputSlices;
+    private float[][] output;
+
+    public TensorArena(int inputSize, int channels, int numClasses) {
+        this(inputSize, channels, numClasses, TensorSpec.FLOAT32, TensorSpec.FLOAT32, DIRECT);
+    }
+
+    public TensorArena(int inputSize, int channels, int numClasses, TensorSpec inputSpec, TensorSpec outputSpec) {
+        this(inputSize, channels, numClasses, inputSpec, outputSpec, DIRECT);
+    }
+
+    public TensorArena(int inputSize, int channels, int numClasses, TensorSpec inputSpec, TensorSpec outputSpec,
+                       Allocator allocator) {
+        this.inputSize = inputSize;
+        this.channels = channels;
+        this.numClasses = numClasses;
+        this.inputSpec = inputSpec;
+        this.outputSpec = outputSpec;
+        this.allocator = allocator;
+        allocate(1);
+    }
+
+    public int getInputSize() {
+        return inputSize;
+    }
+
+    public int getChannels() {
+        return channels;
+    }
+
+    public TensorSpec getInputSpec() {
+        return inputSpec;
+    }
+
+    public TensorSpec getOutputSpec() {
+        return outputSpec;
+    }
+
+    // number of elements one face takes in the input
+    public int getFaceLength() {
+        return inputSize * inputSize * channels;
+    }
+
+    public int getBatchCapacity() {
+        return batchCapacity;
+    }
+
+    // batch capacity needed to hold the given number of faces
+    public int capacityFor(int faces) {
+        return faces <= 1 ? 1 : Integer.highestOneBit(faces - 1) << 1;
+    }
+
+    // returns true when the buffers had to grow, the interpreter input must then have
+    // been resized to getInputShape(getBatchCapacity())
+    public boolean ensureBatchCapacity(int faces) {
+        int capacity = capacityFor(faces);
+        if (capacity <= batchCapacity) {
+            return false;
+        }
+        allocate(capacity);
+        return true;
+    }
+
+    public int[] getInputShape(int capacity) {
+        return new int[]{capacity, inputSize, inputSize, channels};
+    }
+
+    // returns the input buffer rewound, ready to be filled or handed to the interpreter
+    public ByteBuffer input() {
+        inputBuffer.rewind();
+        return inputBuffer;
+    }
+
+    // float view over the same memory as input(), positioned at the given face of the batch,
+    // only for a float32 input
+    public FloatBuffer inputFloats(int slot) {
+        inputFloats.position(slot * getFaceLength());
+        return inputFloats;
+    }
+
+    // input() positioned at the given face of the batch, for a quantized input
+    public ByteBuffer inputBytes(int slot) {
+        inputBuffer.position(slot * getFaceLength());
+        return inputBuffer;
+    }
+
+    // the face at the given slot alone, as a buffer of one face for a classifier run
+    public ByteBuffer inputSlice(int slot) {
+        inputSlices[slot].rewind();
+        return inputSlices[slot];
+    }
+
+    // where the scores of the face at the given slot go, readOutput() reads them from there
+    public ByteBuffer outputSlice(int slot) {
+        outputSlices[slot].rewind();
+        return outputSlices[slot];
+    }
+
+    // returns the output buffer rewound, for the interpreter to write the scores in
+    public ByteBuffer outputBuffer() {
+        outputBuffer.rewind();
+        return outputBuffer;
+    }
+
+    // scores of the first faces of the output buffer, one row per face of the batch
+    public float[][] readOutput(int faces) {
+        outputBuffer.rewind();
+        for (int face = 0; face < faces; face++) {
+            float[] scores = output[face];
+            for (int i = 0; i < numClasses; i++) {
+                scores[i] = outputSpec.isQuantized()
+                        ? outputSpec.dequantize(outputBuffer.get())
+                        : outputBuffer.getFloat();
+            }
+        }
+        return output;
+    }
+
+    private void allocate(int capacity) {
+        batchCapacity = capacity;
+        inputBuffer = allocator.allocateDirect(inputSpec.getBytesPerElement() * capacity * getFaceLength());
+        inputBuffer.order(ByteOrder.nativeOrder());
+        inputFloats = inputBuffer.asFloatBuffer();
+        outputBuffer = allocator.allocateDirect(outputSpec.getBytesPerElement() * capacity * numClasses);
+        outputBuffer.order(ByteOrder.nativeOrder());
+        output = new float[capacity][numClasses];
+        inputSlices = slices(inputBuffer, capacity);
+        outputSlices = slices(outputBuffer, capacity);
+    }
+
+    private static ByteBuffer[] slices(ByteBuffer buffer, int capacity) {
+        int length = buffer.capacity() / capacity;
+        ByteBuffer[] slices = new ByteBuffer[capacity];
+        for (int slot = 0; slot < capacity; slot++) {
+            buffer.clear();
+            buffer.position(slot * length).limit((slot + 1) * length);
+            slices[slot] = buffer.slice().order(ByteOrder.nativeOrder());
+        }
+        buffer.clear();
+        return slices;
+    }
+}
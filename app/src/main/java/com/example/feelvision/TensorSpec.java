@@ -0,0 +1,63 @@
+package com.example.feelvision;
+
+// Element type and quantization of a model input or output. Quantized tensors hold
+// q = round(real / scale) + zeroPoint in one byte per element, float32 tensors the real value.
+public final class TensorSpec {
+    public enum Type { FLOAT32, UINT8, INT8 }
+
+    public static final TensorSpec FLOAT32 = new TensorSpec(Type.FLOAT32, 1, 0);
+
+    private final Type type;
+    private final float scale;
+    private final int zeroPoint;
+
+    public TensorSpec(Type type, float scale, int zeroPoint) {
+        if (type != Type.FLOAT32 && scale <= 0) {
+            throw new IllegalArgumentException("Quantized tensor without a scale");
+        }
+        this.type = type;
+        this.scale = scale;
+        this.zeroPoint = zeroPoint;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public boolean isQuantized() {
+        return type != Type.FLOAT32;
+    }
+
+    public float getScale() {
+        return scale;
+    }
+
+    public int getZeroPoint() {
+        return zeroPoint;
+    }
+
+    public int getBytesPerElement() {
+        return type == Type.FLOAT32 ? 4 : 1;
+    }
+
+    // quantized element of a real value, rounded to nearest even and saturated like the
+    // convertTo of FacePreprocessor
+    public byte quantize(float real) {
+        double quantized = Math.rint(real / scale) + zeroPoint;
+        if (type == Type.UINT8) {
+            return (byte) Math.max(0, Math.min(255, quantized));
+        }
+        return (byte) Math.max(-128, Math.min(127, quantized));
+    }
+
+    // real value of a quantized element as read from the buffer
+    public float dequantize(byte element) {
+        int quantized = type == Type.UINT8 ? element & 0xFF : element;
+        return (quantized - zeroPoint) * scale;
+    }
+
+    @Override
+    public String toString() {
+        return isQuantized() ? type + " (scale " + scale + ", zero point " + zeroPoint + ")" : type.toString();
+    }
+}
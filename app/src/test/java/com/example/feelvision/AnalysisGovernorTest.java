@@ -0,0 +1,207 @@
+package com.example.feelvision;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AnalysisGovernorTest {
+    private static final long FRAME_NANOS = 33000000L;
+    private static final long SECOND_NANOS = 1000000000L;
+
+    private AnalysisGovernor governor;
+    private long nowNanos;
+
+    // what DeviceTelemetry.poll reads from PowerManager and the battery broadcast
+    private static final class Snapshot {
+        final int thermalStatus;
+        final int batteryPercent;
+        final boolean charging;
+
+        Snapshot(int thermalStatus, int batteryPercent, boolean charging) {
+            this.thermalStatus = thermalStatus;
+            this.batteryPercent = batteryPercent;
+            this.charging = charging;
+        }
+    }
+
+    private static final Snapshot COOL = new Snapshot(AnalysisGovernor.THERMAL_NONE, 80, false);
+    private static final Snapshot WARM = new Snapshot(AnalysisGovernor.THERMAL_MODERATE, 80, false);
+    private static final Snapshot HOT = new Snapshot(AnalysisGovernor.THERMAL_SEVERE, 80, false);
+    private static final Snapshot LOW_BATTERY = new Snapshot(AnalysisGovernor.THERMAL_NONE, 10, false);
+    private static final Snapshot LOW_BATTERY_CHARGING = new Snapshot(AnalysisGovernor.THERMAL_NONE, 10, true);
+    private static final Snapshot WARM_LOW_BATTERY = new Snapshot(AnalysisGovernor.THERMAL_MODERATE, 10, false);
+
+    @Test
+    public void levelsGetCheaperDownTheLadder() {
+        AnalysisGovernor.Settings previous = null;
+        for (int level = 0; level <= 5; level++) {
+            AnalysisGovernor.Settings settings = settingsAt(level);
+            if (previous != null) {
+                assertTrue(settings.getRedetectInterval() >= previous.getRedetectInterval());
+                assertTrue(width(settings) <= width(previous));
+                assertTrue(settings.getMaxFaces() <= previous.getMaxFaces());
+                assertTrue(settings.getInterpreterThreads() <= previous.getInterpreterThreads());
+                assertNotEquals(previous.toString(), settings.toString());
+            }
+            previous = settings;
+        }
+    }
+
+    @Test
+    public void modesStartAtTheirBestLevel() {
+        assertEquals(0, new AnalysisGovernor(AnalysisGovernor.Mode.MAX_ACCURACY).getLevel());
+        assertEquals(1, new AnalysisGovernor(AnalysisGovernor.Mode.BALANCED).getLevel());
+        assertEquals(3, new AnalysisGovernor(AnalysisGovernor.Mode.BATTERY_SAVER).getLevel());
+    }
+
+    @Test
+    public void overBudgetStepsDownOncePerSecond() {
+        start(AnalysisGovernor.Mode.BALANCED);
+        run(150, SECOND_NANOS / 2);
+        assertEquals(2, governor.getLevel());
+        run(150, 4 * SECOND_NANOS / 10);
+        assertEquals(2, governor.getLevel());
+        run(150, SECOND_NANOS);
+        assertEquals(3, governor.getLevel());
+        run(150, 10 * SECOND_NANOS);
+        assertEquals(4, governor.getLevel());
+    }
+
+    @Test
+    public void singleSlowFrameDoesNotStepDown() {
+        start(AnalysisGovernor.Mode.BALANCED);
+        run(30, SECOND_NANOS);
+        frame(300);
+        run(30, SECOND_NANOS);
+        assertEquals(1, governor.getLevel());
+        assertTrue(governor.getSmoothedLatencyMs() < 100);
+    }
+
+    @Test
+    public void underBudgetStepsUpAfterTheHold() {
+        start(AnalysisGovernor.Mode.BALANCED);
+        run(150, 10 * SECOND_NANOS);
+        assertEquals(4, governor.getLevel());
+
+        run(30, 4 * SECOND_NANOS);
+        assertEquals(4, governor.getLevel());
+        run(30, 2 * SECOND_NANOS);
+        assertEquals(3, governor.getLevel());
+        run(30, 4 * SECOND_NANOS);
+        assertEquals(3, governor.getLevel());
+        run(30, 20 * SECOND_NANOS);
+        assertEquals(1, governor.getLevel());
+    }
+
+    @Test
+    public void latencyNearTheBudgetHoldsTheLevel() {
+        start(AnalysisGovernor.Mode.BALANCED);
+        run(150, 2 * SECOND_NANOS);
+        // between STEP_UP_FRACTION of the budget and the budget
+        run(80, SECOND_NANOS);
+        int level = governor.getLevel();
+        run(80, 30 * SECOND_NANOS);
+        assertEquals(level, governor.getLevel());
+    }
+
+    @Test
+    public void thermalThrottlingStepsDownAndRecovers() {
+        start(AnalysisGovernor.Mode.BALANCED);
+        apply(WARM);
+        assertEquals(2, governor.getLevel());
+        run(30, 30 * SECOND_NANOS);
+        assertEquals(2, governor.getLevel());
+
+        apply(HOT);
+        assertEquals(4, governor.getLevel());
+        run(30, 30 * SECOND_NANOS);
+        assertEquals(4, governor.getLevel());
+
+        // the level only comes back one step per step up hold
+        apply(COOL);
+        assertEquals(4, governor.getLevel());
+        run(30, 3 * SECOND_NANOS);
+        assertEquals(3, governor.getLevel());
+        run(30, 30 * SECOND_NANOS);
+        assertEquals(1, governor.getLevel());
+    }
+
+    @Test
+    public void lowBatteryStepsDownUnlessCharging() {
+        start(AnalysisGovernor.Mode.BALANCED);
+        apply(LOW_BATTERY_CHARGING);
+        assertEquals(1, governor.getLevel());
+
+        apply(LOW_BATTERY);
+        assertEquals(2, governor.getLevel());
+        run(30, 30 * SECOND_NANOS);
+        assertEquals(2, governor.getLevel());
+
+        apply(WARM_LOW_BATTERY);
+        assertEquals(3, governor.getLevel());
+
+        apply(LOW_BATTERY_CHARGING);
+        run(30, 30 * SECOND_NANOS);
+        assertEquals(1, governor.getLevel());
+    }
+
+    @Test
+    public void worstLevelOfTheModeIsTheFloor() {
+        start(AnalysisGovernor.Mode.MAX_ACCURACY);
+        apply(WARM_LOW_BATTERY);
+        assertEquals(2, governor.getLevel());
+        run(500, 10 * SECOND_NANOS);
+        assertEquals(2, governor.getLevel());
+    }
+
+    @Test
+    public void setModeStartsFromTheBestAllowedLevel() {
+        start(AnalysisGovernor.Mode.BALANCED);
+        apply(WARM);
+        run(150, 10 * SECOND_NANOS);
+        governor.setMode(AnalysisGovernor.Mode.MAX_ACCURACY);
+        assertEquals(1, governor.getLevel());
+        assertEquals(0, governor.getSmoothedLatencyMs(), 0);
+    }
+
+    private void start(AnalysisGovernor.Mode mode) {
+        governor = new AnalysisGovernor(mode);
+        // a while after boot, like System.nanoTime()
+        nowNanos = 100 * SECOND_NANOS;
+    }
+
+    private void apply(Snapshot snapshot) {
+        governor.onDeviceState(snapshot.thermalStatus, snapshot.batteryPercent, snapshot.charging);
+    }
+
+    private AnalysisGovernor.Settings frame(long latencyMs) {
+        nowNanos += FRAME_NANOS;
+        return governor.onFrame(latencyMs * 1000000L, nowNanos);
+    }
+
+    private void run(long latencyMs, long durationNanos) {
+        long end = nowNanos + durationNanos;
+        while (nowNanos < end) {
+            frame(latencyMs);
+        }
+    }
+
+    // the settings of a level, reached from the best level of a mode that allows it
+    private AnalysisGovernor.Settings settingsAt(int level) {
+        AnalysisGovernor.Mode mode = level <= 2 ? AnalysisGovernor.Mode.MAX_ACCURACY
+                : AnalysisGovernor.Mode.BATTERY_SAVER;
+        start(mode);
+        while (governor.getLevel() < level) {
+            run(1000, SECOND_NANOS);
+        }
+        assertEquals(level, governor.getLevel());
+        return governor.getSettings();
+    }
+
+    private static int width(AnalysisGovernor.Settings settings) {
+        return settings.getDetectionWidth() == DetectionResolutionPolicy.FULL_RESOLUTION
+                ? Integer.MAX_VALUE : settings.getDetectionWidth();
+    }
+}
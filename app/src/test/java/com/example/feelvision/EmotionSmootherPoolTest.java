@@ -0,0 +1,98 @@
+package com.example.feelvision;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import org.opencv.core.Rect;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class EmotionSmootherPoolTest {
+    private static final int NUM_CLASSES = 3;
+    private static final int MAX_FACES = 3;
+
+    private static final Rect LEFT = new Rect(40, 100, 120, 120);
+    private static final Rect RIGHT = new Rect(400, 100, 120, 120);
+    private static final float[] FIRST = {0.8f, 0.1f, 0.1f};
+    private static final float[] SECOND = {0.1f, 0.8f, 0.1f};
+
+    private EmotionSmootherPool pool;
+
+    @Before
+    public void setUp() {
+        pool = new EmotionSmootherPool(NUM_CLASSES, MAX_FACES);
+    }
+
+    @Test
+    public void faceKeepsItsSmootherWhileItMoves() {
+        EmotionSmoother smoother = pool.assign(new Rect[]{LEFT})[0];
+        for (int dx = 4; dx <= 40; dx += 4) {
+            assertSame(smoother, pool.assign(new Rect[]{shifted(LEFT, dx)})[0]);
+        }
+    }
+
+    @Test
+    public void smoothersFollowReorderedFaces() {
+        EmotionSmoother[] assigned = pool.assign(new Rect[]{LEFT, RIGHT});
+        EmotionSmoother left = assigned[0];
+        EmotionSmoother right = assigned[1];
+        assertNotSame(left, right);
+        for (int i = 0; i < 8; i++) {
+            left.update(FIRST);
+            right.update(SECOND);
+        }
+
+        assigned = pool.assign(new Rect[]{shifted(RIGHT, -10), shifted(LEFT, 10)});
+        assertSame(right, assigned[0]);
+        assertSame(left, assigned[1]);
+        assertEquals(1, assigned[0].getStableClass());
+        assertEquals(0, assigned[1].getStableClass());
+    }
+
+    @Test
+    public void newFaceStartsFromScratch() {
+        EmotionSmoother smoother = pool.assign(new Rect[]{LEFT})[0];
+        for (int i = 0; i < 8; i++) {
+            smoother.update(FIRST);
+        }
+
+        EmotionSmoother other = pool.assign(new Rect[]{RIGHT})[0];
+        assertEquals(EmotionSmoother.NONE, other.getStableClass());
+        assertEquals(0f, other.getAverage(0), 0f);
+    }
+
+    @Test
+    public void facesBeyondThePoolAreDropped() {
+        Rect[] faces = new Rect[MAX_FACES + 1];
+        for (int i = 0; i < faces.length; i++) {
+            faces[i] = new Rect(i * 150, 0, 100, 100);
+        }
+        EmotionSmoother[] assigned = pool.assign(faces);
+        assertEquals(MAX_FACES, assigned.length);
+        for (int i = 0; i < MAX_FACES; i++) {
+            assertNotNull(assigned[i]);
+            for (int j = i + 1; j < MAX_FACES; j++) {
+                assertNotSame(assigned[i], assigned[j]);
+            }
+        }
+    }
+
+    @Test
+    public void resetForgetsThePreviousFaces() {
+        EmotionSmoother smoother = pool.assign(new Rect[]{LEFT})[0];
+        for (int i = 0; i < 8; i++) {
+            smoother.update(FIRST);
+        }
+
+        pool.reset();
+        EmotionSmoother next = pool.assign(new Rect[]{LEFT})[0];
+        assertEquals(EmotionSmoother.NONE, next.getStableClass());
+    }
+
+    private static Rect shifted(Rect box, int dx) {
+        return new Rect(box.x + dx, box.y, box.width, box.height);
+    }
+}
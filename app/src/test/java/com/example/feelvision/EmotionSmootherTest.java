@@ -0,0 +1,105 @@
+package com.example.feelvision;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class EmotionSmootherTest {
+    private static final int NUM_CLASSES = 3;
+    private static final int WINDOW_SIZE = 8;
+    private static final int MIN_STABLE_FRAMES = 3;
+    private static final float HYSTERESIS = 0.1f;
+
+    private static final float[] FIRST = {0.8f, 0.1f, 0.1f};
+    private static final float[] SECOND = {0.1f, 0.8f, 0.1f};
+
+    private EmotionSmoother smoother;
+
+    @Before
+    public void setUp() {
+        smoother = new EmotionSmoother(NUM_CLASSES, WINDOW_SIZE, MIN_STABLE_FRAMES, HYSTERESIS);
+    }
+
+    @Test
+    public void noClassUntilMinStableFrames() {
+        for (int frame = 1; frame < MIN_STABLE_FRAMES; frame++) {
+            assertEquals(EmotionSmoother.NONE, smoother.update(FIRST));
+        }
+        assertEquals(0, smoother.update(FIRST));
+        assertEquals(0, smoother.getStableClass());
+    }
+
+    @Test
+    public void singleFrameSpikesDoNotFlip() {
+        feed(FIRST, WINDOW_SIZE);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(0, smoother.update(new float[]{0f, 1f, 0f}));
+            assertEquals(0, smoother.update(FIRST));
+            assertEquals(0, smoother.update(FIRST));
+        }
+    }
+
+    @Test
+    public void sustainedChangeFlipsAfterMinStableFrames() {
+        feed(FIRST, WINDOW_SIZE);
+        // leads the window from its fourth frame on, no tie on the way
+        float[] change = {0.1f, 0.85f, 0.05f};
+        int frames = 0;
+        while (smoother.update(change) != 1) {
+            frames++;
+            assertEquals(0, smoother.getStableClass());
+            if (frames > WINDOW_SIZE + MIN_STABLE_FRAMES) {
+                throw new AssertionError("no flip after " + frames + " frames");
+            }
+        }
+        assertEquals(3 + MIN_STABLE_FRAMES - 1, frames);
+    }
+
+    @Test
+    public void closeLeadIsHeldBack() {
+        feed(FIRST, WINDOW_SIZE);
+        // the second class leads by 0.05 on average, below the hysteresis margin
+        float[] close = {0.45f, 0.5f, 0.05f};
+        for (int i = 0; i < 3 * WINDOW_SIZE; i++) {
+            assertEquals(0, smoother.update(close));
+        }
+    }
+
+    @Test
+    public void windowForgetsOlderScores() {
+        feed(FIRST, WINDOW_SIZE);
+        assertEquals(0.8f, smoother.getAverage(0), 1e-5f);
+        feed(SECOND, WINDOW_SIZE / 2);
+        assertEquals(0.45f, smoother.getAverage(0), 1e-5f);
+        feed(SECOND, WINDOW_SIZE / 2);
+        assertEquals(0.1f, smoother.getAverage(0), 1e-5f);
+        assertEquals(0.8f, smoother.getAverage(1), 1e-5f);
+    }
+
+    @Test
+    public void resetStartsAnEmptyWindow() {
+        feed(FIRST, WINDOW_SIZE);
+        smoother.reset();
+        assertEquals(EmotionSmoother.NONE, smoother.getStableClass());
+        assertEquals(0f, smoother.getAverage(0), 0f);
+
+        assertEquals(EmotionSmoother.NONE, smoother.update(SECOND));
+        assertEquals(0.8f, smoother.getAverage(1), 1e-5f);
+        assertEquals(0.1f, smoother.getAverage(0), 1e-5f);
+        feed(SECOND, MIN_STABLE_FRAMES - 1);
+        assertEquals(1, smoother.getStableClass());
+    }
+
+    @Test
+    public void argmaxTakesTheFirstOfEqualScores() {
+        assertEquals(1, EmotionSmoother.argmax(new float[]{0.2f, 0.4f, 0.4f}));
+        assertEquals(0, EmotionSmoother.argmax(new float[]{0.5f, 0.5f}));
+    }
+
+    private void feed(float[] scores, int frames) {
+        for (int i = 0; i < frames; i++) {
+            smoother.update(scores);
+        }
+    }
+}
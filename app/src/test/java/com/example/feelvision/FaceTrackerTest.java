@@ -0,0 +1,130 @@
+package com.example.feelvision;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import org.opencv.core.Rect;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class FaceTrackerTest {
+    private static final Rect FACE = new Rect(100, 80, 60, 60);
+    private static final float[] CONFIDENT = {1f};
+
+    private FaceTracker tracker;
+
+    @Before
+    public void setUp() {
+        tracker = new FaceTracker(3, 0.5f, 0.5);
+    }
+
+    @Test
+    public void searchesUntilAFaceIsDetected() {
+        assertEquals(FaceTracker.State.SEARCHING, tracker.getState());
+        assertTrue(tracker.shouldDetect());
+
+        tracker.onDetection(new Rect[0]);
+        assertEquals(FaceTracker.State.SEARCHING, tracker.getState());
+        assertTrue(tracker.shouldDetect());
+        assertEquals(0, tracker.getFaces().length);
+
+        tracker.onDetection(new Rect[]{FACE});
+        assertEquals(FaceTracker.State.TRACKING, tracker.getState());
+        assertFalse(tracker.shouldDetect());
+        assertArrayEquals(new Rect[]{FACE}, tracker.getFaces());
+    }
+
+    @Test
+    public void redetectsEveryInterval() {
+        tracker.onDetection(new Rect[]{FACE});
+        for (int frame = 1; frame < 3; frame++) {
+            tracker.onTracked(new Rect[]{shifted(FACE, frame)}, CONFIDENT);
+            assertFalse(tracker.shouldDetect());
+        }
+        tracker.onTracked(new Rect[]{shifted(FACE, 3)}, CONFIDENT);
+        assertTrue(tracker.shouldDetect());
+
+        tracker.onDetection(new Rect[]{FACE});
+        assertFalse(tracker.shouldDetect());
+    }
+
+    @Test
+    public void lowConfidenceRequestsDetection() {
+        tracker.onDetection(new Rect[]{FACE, new Rect(300, 80, 60, 60)});
+        tracker.onTracked(new Rect[]{FACE, new Rect(300, 80, 60, 60)}, new float[]{1f, 0.2f});
+        assertTrue(tracker.shouldDetect());
+        assertEquals(FaceTracker.State.TRACKING, tracker.getState());
+    }
+
+    @Test
+    public void driftRequestsDetection() {
+        tracker.onDetection(new Rect[]{FACE});
+        // 20 px on a 60 px face stays below half a face width
+        tracker.onTracked(new Rect[]{shifted(FACE, 20)}, CONFIDENT);
+        assertFalse(tracker.shouldDetect());
+        // 40 px does not
+        tracker.onTracked(new Rect[]{shifted(FACE, 40)}, CONFIDENT);
+        assertTrue(tracker.shouldDetect());
+    }
+
+    @Test
+    public void lostStaysUntilTheNextDetection() {
+        tracker.onDetection(new Rect[]{FACE});
+        tracker.onTracked(new Rect[]{FACE}, new float[]{0f});
+        tracker.onTracked(new Rect[]{FACE}, CONFIDENT);
+        assertTrue(tracker.shouldDetect());
+
+        tracker.onDetection(new Rect[]{FACE});
+        assertFalse(tracker.shouldDetect());
+    }
+
+    @Test
+    public void trackedBoxesReplaceTheFaces() {
+        Rect[] tracked = {shifted(FACE, 5)};
+        tracker.onDetection(new Rect[]{FACE});
+        tracker.onTracked(tracked, CONFIDENT);
+        assertSame(tracked, tracker.getFaces());
+    }
+
+    @Test
+    public void detectionIsCopied() {
+        Rect[] detected = {FACE};
+        tracker.onDetection(detected);
+        detected[0] = new Rect(0, 0, 10, 10);
+        assertEquals(FACE, tracker.getFaces()[0]);
+    }
+
+    @Test
+    public void resetGoesBackToSearching() {
+        tracker.onDetection(new Rect[]{FACE});
+        tracker.reset();
+        assertEquals(FaceTracker.State.SEARCHING, tracker.getState());
+        assertTrue(tracker.shouldDetect());
+        assertEquals(0, tracker.getFaces().length);
+    }
+
+    @Test
+    public void intervalIsAtLeastOne() {
+        tracker.setRedetectInterval(0);
+        assertEquals(1, tracker.getRedetectInterval());
+        tracker.onDetection(new Rect[]{FACE});
+        assertFalse(tracker.shouldDetect());
+        tracker.onTracked(new Rect[]{FACE}, CONFIDENT);
+        assertTrue(tracker.shouldDetect());
+    }
+
+    @Test
+    public void driftIsRelativeToTheFaceWidth() {
+        assertEquals(0, FaceTracker.drift(FACE, FACE), 1e-9);
+        assertEquals(0.5, FaceTracker.drift(FACE, shifted(FACE, 30)), 1e-9);
+        assertEquals(0.5, FaceTracker.drift(FACE, new Rect(100, 110, 60, 60)), 1e-9);
+    }
+
+    private static Rect shifted(Rect box, int dx) {
+        return new Rect(box.x + dx, box.y, box.width, box.height);
+    }
+}
@@ -0,0 +1,107 @@
+package com.example.feelvision;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class InferenceCacheTest {
+    private static final int SIGNATURE_LENGTH = 64;
+    private static final double THRESHOLD = 0.06;
+    private static final long MAX_AGE_NANOS = 500000000L;
+    private static final long FRAME_NANOS = 33000000L;
+
+    private static final float[] SCORES = {0.7f, 0.2f, 0.1f};
+
+    private InferenceCache cache;
+
+    @Before
+    public void setUp() {
+        cache = new InferenceCache(SCORES.length);
+    }
+
+    @Test
+    public void emptyCacheMisses() {
+        assertFalse(cache.reuse(face(128), 0, THRESHOLD, MAX_AGE_NANOS));
+    }
+
+    @Test
+    public void sameFaceReusesTheScores() {
+        classify(face(128), 0);
+        assertTrue(cache.reuse(face(128), FRAME_NANOS, THRESHOLD, MAX_AGE_NANOS));
+        assertArrayEquals(SCORES, cache.getScores(), 0f);
+    }
+
+    @Test
+    public void noiseAllOverTheFaceIsReused() {
+        classify(face(128), 0);
+        byte[] noisy = new byte[SIGNATURE_LENGTH];
+        for (int i = 0; i < noisy.length; i++) {
+            noisy[i] = (byte) (128 + (i % 2 == 0 ? 10 : -10));
+        }
+        assertTrue(cache.reuse(noisy, FRAME_NANOS, THRESHOLD, MAX_AGE_NANOS));
+    }
+
+    @Test
+    public void changeInOneCellMisses() {
+        classify(face(128), 0);
+        // a mouth opening darkens one cell, a 1/64 share of the mean difference
+        byte[] changed = face(128);
+        changed[50] = (byte) 88;
+        assertTrue(InferenceCache.difference(face(128), changed) > THRESHOLD);
+        assertFalse(cache.reuse(changed, FRAME_NANOS, THRESHOLD, MAX_AGE_NANOS));
+    }
+
+    @Test
+    public void slowDriftIsComparedToTheClassifiedFace() {
+        classify(face(128), 0);
+        long now = 0;
+        int value = 128;
+        boolean missed = false;
+        while (!missed && value < 160) {
+            value += 2;
+            now += FRAME_NANOS;
+            missed = !cache.reuse(face(value), now, THRESHOLD, MAX_AGE_NANOS);
+        }
+        assertTrue(missed);
+        assertEquals(THRESHOLD, (value - 128) / 255.0, 2 / 255.0);
+    }
+
+    @Test
+    public void oldScoresAreComputedAgain() {
+        classify(face(128), 0);
+        assertTrue(cache.reuse(face(128), MAX_AGE_NANOS, THRESHOLD, MAX_AGE_NANOS));
+        assertFalse(cache.reuse(face(128), MAX_AGE_NANOS + 1, THRESHOLD, MAX_AGE_NANOS));
+    }
+
+    @Test
+    public void resetDropsTheScores() {
+        classify(face(128), 0);
+        cache.reset();
+        assertFalse(cache.reuse(face(128), FRAME_NANOS, THRESHOLD, MAX_AGE_NANOS));
+    }
+
+    @Test
+    public void differenceIsTheLargestCell() {
+        byte[] a = new byte[]{0, 10, (byte) 200, (byte) 255};
+        byte[] b = new byte[]{5, 10, (byte) 100, (byte) 250};
+        assertEquals(100 / 255.0, InferenceCache.difference(a, b), 1e-9);
+        assertEquals(0, InferenceCache.difference(a, a), 0);
+    }
+
+    private void classify(byte[] signature, long timestampNanos) {
+        assertFalse(cache.reuse(signature, timestampNanos, THRESHOLD, MAX_AGE_NANOS));
+        cache.store(SCORES);
+    }
+
+    private static byte[] face(int value) {
+        byte[] signature = new byte[SIGNATURE_LENGTH];
+        Arrays.fill(signature, (byte) value);
+        return signature;
+    }
+}
@@ -0,0 +1,88 @@
+package com.example.feelvision;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class TensorArenaTest {
+    private static final int INPUT_SIZE = 48;
+    private static final int NUM_CLASSES = 7;
+    private static final int MAX_FACES = 8;
+
+    private static class CountingAllocator implements TensorArena.Allocator {
+        int allocations;
+
+        @Override
+        public ByteBuffer allocateDirect(int capacity) {
+            allocations++;
+            return ByteBuffer.allocateDirect(capacity);
+        }
+    }
+
+    @Test
+    public void noAllocationAfterWarmUp() {
+        CountingAllocator allocator = new CountingAllocator();
+        TensorArena arena = new TensorArena(INPUT_SIZE, 3, NUM_CLASSES, TensorSpec.FLOAT32,
+                TensorSpec.FLOAT32, allocator);
+        for (int faces = 1; faces <= MAX_FACES; faces++) {
+            runFrame(arena, faces);
+        }
+
+        allocator.allocations = 0;
+        for (int frame = 0; frame < 100; frame++) {
+            runFrame(arena, frame % MAX_FACES + 1);
+        }
+        assertEquals(0, allocator.allocations);
+    }
+
+    @Test
+    public void batchGrowsInPowersOfTwo() {
+        CountingAllocator allocator = new CountingAllocator();
+        TensorArena arena = new TensorArena(INPUT_SIZE, 1, NUM_CLASSES, TensorSpec.FLOAT32,
+                TensorSpec.FLOAT32, allocator);
+        // input and output of batch 1
+        assertEquals(2, allocator.allocations);
+        for (int faces = 1; faces <= MAX_FACES; faces++) {
+            arena.ensureBatchCapacity(faces);
+        }
+        // batches 2, 4 and 8
+        assertEquals(8, allocator.allocations);
+        assertEquals(MAX_FACES, arena.getBatchCapacity());
+    }
+
+    @Test
+    public void inputHoldsOneFloatFace() {
+        TensorArena arena = new TensorArena(INPUT_SIZE, 3, NUM_CLASSES);
+        assertEquals(4 * INPUT_SIZE * INPUT_SIZE * 3, arena.input().capacity());
+        assertEquals(4 * NUM_CLASSES, arena.outputBuffer().capacity());
+    }
+
+    @Test
+    public void quantizedBuffersTakeOneBytePerElement() {
+        TensorSpec uint8 = new TensorSpec(TensorSpec.Type.UINT8, 1 / 255f, 0);
+        TensorArena arena = new TensorArena(INPUT_SIZE, 1, NUM_CLASSES, uint8, uint8);
+        assertEquals(INPUT_SIZE * INPUT_SIZE, arena.input().capacity());
+        assertEquals(NUM_CLASSES, arena.outputBuffer().capacity());
+    }
+
+    @Test
+    public void outputRowsAreReused() {
+        TensorArena arena = new TensorArena(INPUT_SIZE, 3, NUM_CLASSES);
+        float[][] first = arena.readOutput(1);
+        assertSame(first, arena.readOutput(1));
+    }
+
+    // what the recognizer does with the arena for one frame
+    private static void runFrame(TensorArena arena, int faces) {
+        arena.ensureBatchCapacity(faces);
+        for (int slot = 0; slot < faces; slot++) {
+            arena.inputFloats(slot).put(0.5f);
+        }
+        arena.input();
+        arena.outputBuffer();
+        arena.readOutput(faces);
+    }
+}
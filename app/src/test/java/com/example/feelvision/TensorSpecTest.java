@@ -0,0 +1,157 @@
+package com.example.feelvision;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class TensorSpecTest {
+    private static final int INPUT_SIZE = 48;
+    private static final int CHANNELS = 3;
+    private static final int NUM_CLASSES = 7;
+    private static final int FACE_LENGTH = INPUT_SIZE * INPUT_SIZE * CHANNELS;
+
+    // the input ranges of uint8 and int8 models converted from a 0-1 float model
+    private static final TensorSpec UINT8_INPUT = new TensorSpec(TensorSpec.Type.UINT8, 1 / 255f, 0);
+    private static final TensorSpec INT8_INPUT = new TensorSpec(TensorSpec.Type.INT8, 1 / 255f, -128);
+    // softmax outputs
+    private static final TensorSpec UINT8_OUTPUT = new TensorSpec(TensorSpec.Type.UINT8, 1 / 256f, 0);
+    private static final TensorSpec INT8_OUTPUT = new TensorSpec(TensorSpec.Type.INT8, 1 / 256f, -128);
+
+    @Test
+    public void roundTripStaysWithinHalfAStep() {
+        for (TensorSpec spec : new TensorSpec[]{UINT8_INPUT, INT8_INPUT, UINT8_OUTPUT, INT8_OUTPUT}) {
+            // the 256 levels cover 0 to 255 steps
+            for (int i = 0; i <= 1000; i++) {
+                float real = i / 1000f * 255 * spec.getScale();
+                assertEquals(spec.toString(), real, spec.dequantize(spec.quantize(real)), spec.getScale() / 2 + 1e-6f);
+            }
+        }
+    }
+
+    @Test
+    public void pixelsMapToTheirOwnLevel() {
+        for (int pixel = 0; pixel <= 255; pixel++) {
+            assertEquals(pixel, UINT8_INPUT.quantize(pixel / 255f) & 0xFF);
+            assertEquals(pixel - 128, INT8_INPUT.quantize(pixel / 255f));
+        }
+    }
+
+    @Test
+    public void outOfRangeValuesSaturate() {
+        assertEquals(0, UINT8_INPUT.quantize(-0.5f));
+        assertEquals(255, UINT8_INPUT.quantize(2f) & 0xFF);
+        assertEquals(-128, INT8_INPUT.quantize(-0.5f));
+        assertEquals(127, INT8_INPUT.quantize(2f));
+    }
+
+    @Test
+    public void quantizedCropsKeepTheArgmax() {
+        float[][] weights = weights(new Random(7));
+        float[][] crops = {gradient(), checkerboard(), uniform(0.15f), uniform(0.85f), noise(new Random(1)),
+                noise(new Random(2)), noise(new Random(3))};
+        for (TensorSpec[] specs : new TensorSpec[][]{{UINT8_INPUT, UINT8_OUTPUT}, {INT8_INPUT, INT8_OUTPUT}}) {
+            TensorArena arena = new TensorArena(INPUT_SIZE, CHANNELS, NUM_CLASSES, specs[0], specs[1]);
+            arena.ensureBatchCapacity(crops.length);
+            for (int slot = 0; slot < crops.length; slot++) {
+                ByteBuffer input = arena.inputBytes(slot);
+                for (float value : crops[slot]) {
+                    input.put(specs[0].quantize(value));
+                }
+            }
+
+            ByteBuffer output = arena.outputBuffer();
+            int[] expected = new int[crops.length];
+            for (int slot = 0; slot < crops.length; slot++) {
+                float[] dequantized = new float[FACE_LENGTH];
+                ByteBuffer input = arena.inputBytes(slot);
+                for (int i = 0; i < FACE_LENGTH; i++) {
+                    dequantized[i] = specs[0].dequantize(input.get());
+                }
+                float[] floatScores = classify(weights, crops[slot]);
+                float[] quantizedScores = classify(weights, dequantized);
+                expected[slot] = EmotionSmoother.argmax(floatScores);
+                assertEquals(specs[0] + " crop " + slot, expected[slot], EmotionSmoother.argmax(quantizedScores));
+                for (float score : quantizedScores) {
+                    output.put(specs[1].quantize(score));
+                }
+            }
+
+            float[][] scores = arena.readOutput(crops.length);
+            for (int slot = 0; slot < crops.length; slot++) {
+                assertEquals(specs[1] + " scores " + slot, expected[slot], EmotionSmoother.argmax(scores[slot]));
+            }
+        }
+    }
+
+    // softmax of a linear layer, enough to see whether quantization moves the winner
+    private static float[] classify(float[][] weights, float[] face) {
+        float[] scores = new float[NUM_CLASSES];
+        float max = -Float.MAX_VALUE;
+        for (int c = 0; c < NUM_CLASSES; c++) {
+            float sum = 0;
+            for (int i = 0; i < FACE_LENGTH; i++) {
+                sum += weights[c][i] * face[i];
+            }
+            scores[c] = sum;
+            max = Math.max(max, sum);
+        }
+        float total = 0;
+        for (int c = 0; c < NUM_CLASSES; c++) {
+            scores[c] = (float) Math.exp(scores[c] - max);
+            total += scores[c];
+        }
+        for (int c = 0; c < NUM_CLASSES; c++) {
+            scores[c] /= total;
+        }
+        return scores;
+    }
+
+    private static float[][] weights(Random random) {
+        float[][] weights = new float[NUM_CLASSES][FACE_LENGTH];
+        for (float[] row : weights) {
+            for (int i = 0; i < FACE_LENGTH; i++) {
+                row[i] = (float) random.nextGaussian() * 0.05f;
+            }
+        }
+        return weights;
+    }
+
+    // crops hold the 0-1 values FacePreprocessor computes from 8 bit pixels
+    private static float[] gradient() {
+        float[] face = new float[FACE_LENGTH];
+        for (int i = 0; i < FACE_LENGTH; i++) {
+            int x = i / CHANNELS % INPUT_SIZE;
+            face[i] = Math.round(x * 255f / (INPUT_SIZE - 1)) / 255f;
+        }
+        return face;
+    }
+
+    private static float[] checkerboard() {
+        float[] face = new float[FACE_LENGTH];
+        for (int i = 0; i < FACE_LENGTH; i++) {
+            int x = i / CHANNELS % INPUT_SIZE;
+            int y = i / CHANNELS / INPUT_SIZE;
+            face[i] = ((x / 6 + y / 6) % 2 == 0 ? 40 : 220) / 255f;
+        }
+        return face;
+    }
+
+    private static float[] uniform(float value) {
+        float[] face = new float[FACE_LENGTH];
+        for (int i = 0; i < FACE_LENGTH; i++) {
+            face[i] = Math.round(value * 255) / 255f;
+        }
+        return face;
+    }
+
+    private static float[] noise(Random random) {
+        float[] face = new float[FACE_LENGTH];
+        for (int i = 0; i < FACE_LENGTH; i++) {
+            face[i] = random.nextInt(256) / 255f;
+        }
+        return face;
+    }
+}
@@ -0,0 +1,373 @@
+package com.example.feelvision.benchmark;
+
+import com.example.feelvision.CascadeFaceDetector;
+import com.example.feelvision.CpuBudget;
+import com.example.feelvision.DetectionResolutionPolicy;
+import com.example.feelvision.EmotionSmoother;
+import com.example.feelvision.FacePreprocessor;
+import com.example.feelvision.FrameOrientation;
+import com.example.feelvision.SearchWindowDetector;
+import com.example.feelvision.TensorArena;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.objdetect.CascadeClassifier;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// One benchmark per stage of FacialExpressionRecognition.analyze that does not need Android
+// or the TFLite interpreter. Every invocation moves on to the next recorded frame.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class PipelineBenchmark {
+    private static final int INPUT_SIZE = 48;
+    private static final int NUM_CLASSES = 7;
+    private static final int SCORE_VECTORS = 64;
+    private static final Rect[] NO_FACES = new Rect[0];
+    // intersection over union for a face to match one found at full resolution
+    private static final double MATCH_IOU = 0.5;
+
+    static {
+        // the Mat fields below need the natives before setUp runs
+        nu.pattern.OpenCV.loadLocally();
+    }
+
+    private final List<Mat> frames = new ArrayList<>();
+    private final List<Mat> uprightGrayFrames = new ArrayList<>();
+    private final List<Rect[]> detectedFaces = new ArrayList<>();
+    private final List<Mat> faceRois = new ArrayList<>();
+    private final Mat grayscaleImage = new Mat();
+    private final Mat detectionImage = new Mat();
+    private final Mat uprightGrayscaleImage = new Mat();
+    private final FrameOrientation frameOrientation = new FrameOrientation();
+    private final DetectionResolutionPolicy detectionResolutionPolicy = new DetectionResolutionPolicy(320);
+    private final float[][] scores = new float[SCORE_VECTORS][NUM_CLASSES];
+    private final float[] packedFace = new float[INPUT_SIZE * INPUT_SIZE * 3];
+
+    private SearchWindowDetector fullFrameDetector;
+    private SearchWindowDetector windowedDetector;
+    private TensorArena tensorArena;
+    private FacePreprocessor facePreprocessor;
+    private EmotionSmoother emotionSmoother;
+    private int frameIndex;
+    private int roiIndex;
+    private int scoreIndex;
+
+    // threads of the parallel backend of OpenCV, for the benchmarks that take it; every
+    // parameter value runs in its own fork
+    @State(Scope.Benchmark)
+    public static class CpuSplit {
+        // 0 for the split of CpuBudget.forDevice()
+        @Param({"1", "2", "4", "0"})
+        public int openCvThreads;
+
+        @Setup
+        public void setUp() {
+            CpuBudget cpuBudget = CpuBudget.forDevice();
+            if (openCvThreads > 0) {
+                cpuBudget = new CpuBudget(cpuBudget.getCores(), cpuBudget.getBigCores(), openCvThreads,
+                        cpuBudget.getInterpreterThreads());
+            }
+            cpuBudget.apply();
+            System.out.println("CPU budget: " + cpuBudget);
+        }
+    }
+
+    // width of the detection image for detectionAtWidth, 0 for the full frame; every parameter
+    // value runs in its own fork and first prints how well the faces found at that width match
+    // those found at full resolution
+    @State(Scope.Thread)
+    public static class DetectionWidth {
+        @Param({"160", "240", "320", "480", "0"})
+        public int width;
+
+        private DetectionResolutionPolicy policy;
+
+        @Setup
+        public void setUp(PipelineBenchmark benchmark) {
+            policy = new DetectionResolutionPolicy(width);
+            benchmark.printAccuracy(policy);
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        CascadeClassifier cascadeClassifier = new CascadeClassifier(System.getProperty("feelvision.cascade"));
+        if (cascadeClassifier.empty()) {
+            throw new IllegalStateException("Cannot load the cascade from " + System.getProperty("feelvision.cascade"));
+        }
+        fullFrameDetector = new SearchWindowDetector(new CascadeFaceDetector(cascadeClassifier));
+        windowedDetector = new SearchWindowDetector(new CascadeFaceDetector(cascadeClassifier));
+        // always take the cheap path once faces are known
+        windowedDetector.setFullScanIntervalMs(Long.MAX_VALUE);
+        windowedDetector.setMaxConsecutiveMisses(Integer.MAX_VALUE);
+
+        loadFrames(new File(System.getProperty("feelvision.frames", "frames")));
+        for (Mat frame : frames) {
+            Mat upright = new Mat();
+            toDetectionImage(frame, upright, detectionResolutionPolicy);
+            uprightGrayFrames.add(upright);
+
+            Rect[] faces = fullFrameDetector.detect(upright, NO_FACES);
+            detectedFaces.add(faces);
+            double scale = detectionResolutionPolicy.scaleFor(frame.rows());
+            for (Rect face : faces) {
+                Rect fullResolution = DetectionResolutionPolicy.toFullResolution(face, scale);
+                faceRois.add(frame.submat(frameOrientation.toFrame(fullResolution, frame.cols(), frame.rows())));
+            }
+        }
+        if (faceRois.isEmpty()) {
+            // every stage after detection would run on nothing
+            throw new IllegalStateException("No face found in the frames");
+        }
+        System.out.println("Frames: " + frames.size() + ", faces: " + faceRois.size());
+
+        tensorArena = new TensorArena(INPUT_SIZE, 3, NUM_CLASSES);
+        facePreprocessor = new FacePreprocessor(tensorArena, frameOrientation);
+        facePreprocessor.process(faceRois.get(0), 0);
+        emotionSmoother = new EmotionSmoother(NUM_CLASSES);
+
+        Random random = new Random(42);
+        for (float[] vector : scores) {
+            float sum = 0;
+            for (int i = 0; i < NUM_CLASSES; i++) {
+                vector[i] = random.nextFloat();
+                sum += vector[i];
+            }
+            for (int i = 0; i < NUM_CLASSES; i++) {
+                vector[i] /= sum;
+            }
+        }
+        Arrays.fill(packedFace, 0.5f);
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (Mat roi : faceRois) {
+            roi.release();
+        }
+        for (Mat frame : frames) {
+            frame.release();
+        }
+        for (Mat frame : uprightGrayFrames) {
+            frame.release();
+        }
+        facePreprocessor.release();
+        frameOrientation.release();
+        fullFrameDetector.release();
+        windowedDetector.release();
+    }
+
+    // RGBA to gray, downscale to the detection resolution and rotate upright
+    @Benchmark
+    public Mat grayConversion() {
+        toDetectionImage(nextFrame(), uprightGrayscaleImage, detectionResolutionPolicy);
+        return uprightGrayscaleImage;
+    }
+
+    // gray conversion, downscale and full scan of a frame at the width of DetectionWidth
+    @Benchmark
+    public Rect[] detectionAtWidth(DetectionWidth detectionWidth) {
+        toDetectionImage(nextFrame(), uprightGrayscaleImage, detectionWidth.policy);
+        return fullFrameDetector.detect(uprightGrayscaleImage, NO_FACES);
+    }
+
+    @Benchmark
+    public Rect[] cascadeDetection(CpuSplit cpuSplit) {
+        return fullFrameDetector.detect(uprightGrayFrames.get(nextFrameIndex()), NO_FACES);
+    }
+
+    // search windows around the faces found in the same frame
+    @Benchmark
+    public Rect[] windowedDetection() {
+        int index = nextFrameIndex();
+        return windowedDetector.detect(uprightGrayFrames.get(index), detectedFaces.get(index));
+    }
+
+    // resize, rotate, normalize and pack one face ROI
+    @Benchmark
+    public ByteBuffer roiPreprocessing() {
+        Mat roi = faceRois.get(roiIndex);
+        roiIndex = (roiIndex + 1) % faceRois.size();
+        return facePreprocessor.process(roi, 0);
+    }
+
+    // the Java side of the Bitmap path FacePreprocessor replaced: copy of the ROI out of the
+    // Mat as matToBitmap does, nearest neighbour scaling as createScaledBitmap(..., false) and
+    // a float per channel into a new direct buffer. Bitmap itself only exists on Android, see
+    // PreprocessingBenchmark of the app for both paths on a device
+    @Benchmark
+    public ByteBuffer bitmapStylePreprocessing() {
+        Mat roi = faceRois.get(roiIndex);
+        roiIndex = (roiIndex + 1) % faceRois.size();
+        int cols = roi.cols();
+        int rows = roi.rows();
+        byte[] pixels = new byte[cols * rows * 4];
+        roi.get(0, 0, pixels);
+        int[] intValues = new int[INPUT_SIZE * INPUT_SIZE];
+        for (int y = 0; y < INPUT_SIZE; y++) {
+            int sourceRow = y * rows / INPUT_SIZE * cols;
+            for (int x = 0; x < INPUT_SIZE; x++) {
+                int offset = (sourceRow + x * cols / INPUT_SIZE) * 4;
+                intValues[y * INPUT_SIZE + x] = (pixels[offset + 3] & 0xFF) << 24 | (pixels[offset] & 0xFF) << 16
+                        | (pixels[offset + 1] & 0xFF) << 8 | (pixels[offset + 2] & 0xFF);
+            }
+        }
+        ByteBuffer byteBuffer = ByteBuffer.allocateDirect(4 * INPUT_SIZE * INPUT_SIZE * 3);
+        byteBuffer.order(ByteOrder.nativeOrder());
+        for (int val : intValues) {
+            byteBuffer.putFloat(((val >> 16) & 0xFF) / 255.0f);
+            byteBuffer.putFloat(((val >> 8) & 0xFF) / 255.0f);
+            byteBuffer.putFloat((val & 0xFF) / 255.0f);
+        }
+        return byteBuffer;
+    }
+
+    // signature the inference cache compares, of the face preprocessed last
+    @Benchmark
+    public byte[] faceSignature() {
+        return facePreprocessor.getSignature();
+    }
+
+    // copy of an already normalized face into the direct input buffer
+    @Benchmark
+    public FloatBuffer tensorPacking() {
+        return tensorArena.inputFloats(0).put(packedFace);
+    }
+
+    @Benchmark
+    public int argmax() {
+        return EmotionSmoother.argmax(nextScores());
+    }
+
+    @Benchmark
+    public int smoothing() {
+        return emotionSmoother.update(nextScores());
+    }
+
+    private void toDetectionImage(Mat frame, Mat upright, DetectionResolutionPolicy policy) {
+        Imgproc.cvtColor(frame, grayscaleImage, Imgproc.COLOR_RGBA2GRAY);
+        double scale = policy.scaleFor(frame.rows());
+        Mat source = grayscaleImage;
+        if (scale < 1) {
+            Imgproc.resize(grayscaleImage, detectionImage, new Size(), scale, scale, Imgproc.INTER_AREA);
+            source = detectionImage;
+        }
+        frameOrientation.toUpright(source, upright);
+    }
+
+    // recall and precision of full scans at the width of policy against full scans of the full
+    // frames, a face matches at most one found at full resolution
+    private void printAccuracy(DetectionResolutionPolicy policy) {
+        DetectionResolutionPolicy fullResolution = new DetectionResolutionPolicy(DetectionResolutionPolicy.FULL_RESOLUTION);
+        Mat upright = new Mat();
+        int referenceCount = 0;
+        int detectedCount = 0;
+        int matchedCount = 0;
+        for (Mat frame : frames) {
+            Rect[] reference = fullResolutionFaces(frame, upright, fullResolution);
+            Rect[] detected = fullResolutionFaces(frame, upright, policy);
+            boolean[] used = new boolean[detected.length];
+            for (Rect expected : reference) {
+                for (int i = 0; i < detected.length; i++) {
+                    if (!used[i] && intersectionOverUnion(expected, detected[i]) >= MATCH_IOU) {
+                        used[i] = true;
+                        matchedCount++;
+                        break;
+                    }
+                }
+            }
+            referenceCount += reference.length;
+            detectedCount += detected.length;
+        }
+        upright.release();
+        System.out.println(String.format(Locale.US,
+                "Detection width %d: recall %.3f (%d of %d faces at full resolution), precision %.3f (%d faces)",
+                policy.getTargetWidth(), referenceCount == 0 ? 0 : matchedCount / (double) referenceCount,
+                matchedCount, referenceCount, detectedCount == 0 ? 0 : matchedCount / (double) detectedCount,
+                detectedCount));
+    }
+
+    // boxes in the coordinates of the upright full frame
+    private Rect[] fullResolutionFaces(Mat frame, Mat upright, DetectionResolutionPolicy policy) {
+        toDetectionImage(frame, upright, policy);
+        double scale = policy.scaleFor(frame.rows());
+        Rect[] faces = fullFrameDetector.detect(upright, NO_FACES);
+        for (int i = 0; i < faces.length; i++) {
+            faces[i] = DetectionResolutionPolicy.toFullResolution(faces[i], scale);
+        }
+        return faces;
+    }
+
+    private static double intersectionOverUnion(Rect a, Rect b) {
+        int width = Math.min(a.x + a.width, b.x + b.width) - Math.max(a.x, b.x);
+        int height = Math.min(a.y + a.height, b.y + b.height) - Math.max(a.y, b.y);
+        if (width <= 0 || height <= 0) {
+            return 0;
+        }
+        double intersection = (double) width * height;
+        return intersection / (a.area() + b.area() - intersection);
+    }
+
+    // frames are stored upright, the camera delivers them rotated
+    private void loadFrames(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            Arrays.sort(files);
+            for (File file : files) {
+                Mat image = Imgcodecs.imread(file.getAbsolutePath());
+                if (image.empty()) {
+                    continue;
+                }
+                Mat rgba = new Mat();
+                Imgproc.cvtColor(image, rgba, Imgproc.COLOR_BGR2RGBA);
+                Mat frame = new Mat();
+                frameOrientation.toFrame(rgba, frame);
+                frames.add(frame);
+                image.release();
+                rgba.release();
+            }
+        }
+        if (frames.isEmpty()) {
+            throw new IllegalStateException("No frames in " + directory);
+        }
+    }
+
+    private Mat nextFrame() {
+        return frames.get(nextFrameIndex());
+    }
+
+    private int nextFrameIndex() {
+        int index = frameIndex;
+        frameIndex = (frameIndex + 1) % frames.size();
+        return index;
+    }
+
+    private float[] nextScores() {
+        float[] vector = scores[scoreIndex];
+        scoreIndex = (scoreIndex + 1) % SCORE_VECTORS;
+        return vector;
+    }
+}
@@ -48,7 +48,12 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
     protected int mPreviewFormat = RGBA;
     protected int mCameraIndex = CAMERA_ID_ANY;
     protected boolean mEnabled;
+    protected boolean mMirrored;
     protected FpsMeter mFpsMeter = null;
+    protected StageProfilerOverlay mStageProfilerOverlay = null;
+    // reused by every blit instead of two Rects per frame
+    private final Rect mSrcRect = new Rect();
+    private final Rect mDstRect = new Rect();
 
     public static final int CAMERA_ID_ANY   = -1;
     public static final int CAMERA_ID_BACK  = 99;
@@ -90,6 +95,15 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
         this.mCameraIndex = cameraIndex;
     }
 
+    /**
+     * Mirrors the delivered frame horizontally when it is drawn on the screen.
+     * The frame passed to the listener is not modified, the mirror is part of the canvas transform.
+     * @param mirrored true to mirror the frame on screen
+     */
+    public void setMirrored(boolean mirrored) {
+        this.mMirrored = mirrored;
+    }
+
     public interface CvCameraViewListener {
         /**
          * This method is invoked when camera preview has started. After this method is invoked
@@ -190,6 +204,27 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
         public Mat gray();
     };
 
+    /**
+     * Frame delivered in a semi-planar YUV layout. gray() wraps the luminance plane without a
+     * copy and uv() the interleaved chroma plane, so a consumer that only needs color for small
+     * regions can skip the full frame rgba() conversion. Both Mats are only valid inside
+     * onCameraFrame().
+     */
+    public interface CvCameraViewYuvFrame extends CvCameraViewFrame {
+
+        /**
+         * This method returns the interleaved chroma plane, (height/2)x(width/2) CV_8UC2,
+         * or null when the camera delivers planar chroma
+         */
+        public Mat uv();
+
+        /**
+         * Imgproc.COLOR_YUV2RGBA_NV12 or Imgproc.COLOR_YUV2RGBA_NV21, the cvtColorTwoPlane()
+         * code matching the order of uv()
+         */
+        public int uvConversion();
+    };
+
     public void surfaceChanged(SurfaceHolder arg0, int arg1, int arg2, int arg3) {
         Log.d(TAG, "call surfaceChanged event");
         synchronized(mSyncObject) {
@@ -255,6 +290,20 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
             mFpsMeter = null;
     }
 
+    /**
+     * Enables the StageProfiler and draws its per-stage percentiles on the screen
+     */
+    public void enableStageProfilerOverlay() {
+        StageProfiler.setEnabled(true);
+        if (mStageProfilerOverlay == null) {
+            mStageProfilerOverlay = new StageProfilerOverlay();
+        }
+    }
+
+    public void disableStageProfilerOverlay() {
+        mStageProfilerOverlay = null;
+    }
+
     /**
      *
      * @param listener
@@ -396,8 +445,10 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
 
         boolean bmpValid = true;
         if (modified != null) {
+            long matToBitmapStart = StageProfiler.begin();
             try {
                 Utils.matToBitmap(modified, mCacheBitmap);
+                StageProfiler.end(StageProfiler.Stage.MAT_TO_BITMAP, matToBitmapStart);
             } catch(Exception e) {
                 Log.e(TAG, "Mat type: " + modified);
                 Log.e(TAG, "Bitmap type: " + mCacheBitmap.getWidth() + "*" + mCacheBitmap.getHeight());
@@ -407,6 +458,7 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
         }
 
         if (bmpValid && mCacheBitmap != null) {
+            long blitStart = StageProfiler.begin();
             Canvas canvas = getHolder().lockCanvas();
             // rotate canvas by 90 degree
             // for portrait mode
@@ -444,27 +496,36 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
                     Log.d(TAG, "mStretch value: " + mScale);
 
                 //this code will scale canvas to fit your phone
+                canvas.save();
+                if (mMirrored) {
+                    canvas.scale(-1f, 1f, canvas.getWidth() / 2f, canvas.getHeight() / 2f);
+                }
 
+                mSrcRect.set(0,0,mCacheBitmap.getWidth(), mCacheBitmap.getHeight());
                 if (mScale1 != 0) {
-                    canvas.drawBitmap(mCacheBitmap, new Rect(0,0,mCacheBitmap.getWidth(), mCacheBitmap.getHeight()),
-                            new Rect((int)((canvas.getWidth() - mScale1*mCacheBitmap.getWidth()) / 2),
+                    mDstRect.set((int)((canvas.getWidth() - mScale1*mCacheBitmap.getWidth()) / 2),
                                     (int)((canvas.getHeight() - mScale2*mCacheBitmap.getHeight()) / 2),
                                     (int)((canvas.getWidth() - mScale1*mCacheBitmap.getWidth()) / 2 + mScale1*mCacheBitmap.getWidth()),
-                                    (int)((canvas.getHeight() - mScale2*mCacheBitmap.getHeight()) / 2 + mScale2*mCacheBitmap.getHeight())), null);
+                                    (int)((canvas.getHeight() - mScale2*mCacheBitmap.getHeight()) / 2 + mScale2*mCacheBitmap.getHeight()));
                 }
                else {
-                     canvas.drawBitmap(mCacheBitmap, new Rect(0,0,mCacheBitmap.getWidth(), mCacheBitmap.getHeight()),
-                         new Rect((canvas.getWidth() - mCacheBitmap.getWidth()) / 2,
+                     mDstRect.set((canvas.getWidth() - mCacheBitmap.getWidth()) / 2,
                          (canvas.getHeight() - mCacheBitmap.getHeight()) / 2,
                          (canvas.getWidth() - mCacheBitmap.getWidth()) / 2 + mCacheBitmap.getWidth(),
-                         (canvas.getHeight() - mCacheBitmap.getHeight()) / 2 + mCacheBitmap.getHeight()), null);
+                         (canvas.getHeight() - mCacheBitmap.getHeight()) / 2 + mCacheBitmap.getHeight());
                 }
+                canvas.drawBitmap(mCacheBitmap, mSrcRect, mDstRect, null);
+                canvas.restore();
 
                 if (mFpsMeter != null) {
                     mFpsMeter.measure();
                     mFpsMeter.draw(canvas, 20, 30);
                 }
+                if (mStageProfilerOverlay != null) {
+                    mStageProfilerOverlay.draw(canvas, 20, 60);
+                }
                 getHolder().unlockCanvasAndPost(canvas);
+                StageProfiler.end(StageProfiler.Stage.CANVAS_BLIT, blitStart);
             }
         }
     }
@@ -7,7 +7,10 @@ import java.nio.FloatBuffer;
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
 
+import org.opencv.android.CameraGLSurfaceView.CameraPixelsListener;
 import org.opencv.android.CameraGLSurfaceView.CameraTextureListener;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
 
 import android.annotation.TargetApi;
 import android.graphics.SurfaceTexture;
@@ -64,10 +67,20 @@ public abstract class CameraGLRendererBase implements GLSurfaceView.Renderer, Su
 
     private int[] texCamera = {0}, texFBO = {0}, texDraw = {0};
     private int[] FBO = {0};
+    private int[] texRead = {0}, FBORead = {0};
     private int progOES = -1, prog2D = -1;
     private int vPosOES, vTCOES, vPos2D, vTC2D;
 
     private FloatBuffer vert, texOES, tex2D;
+    // texture coordinates of the pass to the screen, see updateScreenTexCoords()
+    private FloatBuffer screenTexOES, screenTex2D;
+    private boolean mScreenRotated, mScreenMirrored;
+    private boolean mHaveScreenTexCoords = false;
+
+    // downscaled copy of texFBO read back for CameraPixelsListener
+    private int mReadWidth = 0, mReadHeight = 0;
+    private ByteBuffer mReadBuffer;
+    private Mat mReadMat;
 
     protected int mCameraWidth = -1, mCameraHeight = -1;
     protected int mFBOWidth = -1, mFBOHeight = -1;
@@ -81,6 +94,7 @@ public abstract class CameraGLRendererBase implements GLSurfaceView.Renderer, Su
     protected boolean mUpdateST = false;
     protected boolean mEnabled = true;
     protected boolean mIsStarted = false;
+    protected volatile boolean mMirrored = false;
 
     protected CameraGLSurfaceView mView;
 
@@ -94,6 +108,8 @@ public abstract class CameraGLRendererBase implements GLSurfaceView.Renderer, Su
         vert   = ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder()).asFloatBuffer();
         texOES = ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder()).asFloatBuffer();
         tex2D  = ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder()).asFloatBuffer();
+        screenTexOES = ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder()).asFloatBuffer();
+        screenTex2D  = ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder()).asFloatBuffer();
         vert.put(vertices).position(0);
         texOES.put(texCoordOES).position(0);
         tex2D.put(texCoord2D).position(0);
@@ -120,15 +136,22 @@ public abstract class CameraGLRendererBase implements GLSurfaceView.Renderer, Su
             }
 
             GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+            updateScreenTexCoords();
 
             CameraTextureListener texListener = mView.getCameraTextureListener();
-            if(texListener != null) {
+            CameraPixelsListener pixelsListener = mView.getCameraPixelsListener();
+            if(texListener != null || pixelsListener != null) {
                 //Log.d(LOGTAG, "haveUserCallback");
                 // texCamera(OES) -> texFBO
                 drawTex(texCamera[0], true, FBO[0]);
 
+                // texFBO -> texRead -> pixelsListener, only when it can take a frame
+                if(pixelsListener != null && pixelsListener.wantsCameraPixels())
+                    readPixels(pixelsListener, mView.getCameraPixelsMaxWidth());
+
                 // call user code (texFBO -> texDraw)
-                boolean modified = texListener.onCameraTexture(texFBO[0], texDraw[0], mCameraWidth, mCameraHeight);
+                boolean modified = texListener != null &&
+                        texListener.onCameraTexture(texFBO[0], texDraw[0], mCameraWidth, mCameraHeight);
 
                 if(modified) {
                     // texDraw -> screen
@@ -297,7 +320,8 @@ public abstract class CameraGLRendererBase implements GLSurfaceView.Renderer, Su
         GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, width, height, 0, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, null);
         GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
         GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
-        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_NEAREST);
+        // linear minification for the downscaled screen and read back passes
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
         GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_NEAREST);
 
         //int hFBO;
@@ -314,26 +338,130 @@ public abstract class CameraGLRendererBase implements GLSurfaceView.Renderer, Su
         mFBOHeight = height;
     }
 
+    private void deleteReadFBO()
+    {
+        if(mReadWidth == 0)
+            return;
+        Log.d(LOGTAG, "deleteReadFBO("+mReadWidth+"x"+mReadHeight+")");
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+        GLES20.glDeleteFramebuffers(1, FBORead, 0);
+        deleteTex(texRead);
+        mReadWidth = mReadHeight = 0;
+        if(mReadMat != null) {
+            mReadMat.release();
+            mReadMat = null;
+        }
+        mReadBuffer = null;
+    }
+
+    private void initReadFBO(int width, int height)
+    {
+        Log.d(LOGTAG, "initReadFBO("+width+"x"+height+")");
+
+        deleteReadFBO();
+
+        GLES20.glGenTextures(1, texRead, 0);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, texRead[0]);
+        GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, width, height, 0, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, null);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_NEAREST);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_NEAREST);
+
+        GLES20.glGenFramebuffers(1, FBORead, 0);
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, FBORead[0]);
+        GLES20.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0, GLES20.GL_TEXTURE_2D, texRead[0], 0);
+
+        int FBOstatus = GLES20.glCheckFramebufferStatus(GLES20.GL_FRAMEBUFFER);
+        if (FBOstatus != GLES20.GL_FRAMEBUFFER_COMPLETE)
+            Log.e(LOGTAG, "initReadFBO failed, status: " + FBOstatus);
+
+        mReadWidth  = width;
+        mReadHeight = height;
+        mReadBuffer = ByteBuffer.allocateDirect(width * height * 4).order(ByteOrder.nativeOrder());
+        mReadMat = new Mat(height, width, CvType.CV_8UC4, mReadBuffer);
+    }
+
+    // texFBO scaled down to maxWidth and read back into mReadMat, in the orientation of the camera
+    private void readPixels(CameraPixelsListener listener, int maxWidth)
+    {
+        long start = StageProfiler.begin();
+        int width = mCameraWidth, height = mCameraHeight;
+        if(maxWidth > 0 && maxWidth < width) {
+            height = Math.max(2, Math.round((float) height * maxWidth / width) & ~1);
+            width = maxWidth;
+        }
+        if(width != mReadWidth || height != mReadHeight)
+            initReadFBO(width, height);
+
+        // texCoordOES flips the rows, so that glReadPixels, which starts at the bottom row,
+        // returns the top row first as Mat expects
+        drawTex(texFBO[0], false, FBORead[0], mReadWidth, mReadHeight, texOES);
+        mReadBuffer.position(0);
+        GLES20.glReadPixels(0, 0, mReadWidth, mReadHeight, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, mReadBuffer);
+        StageProfiler.end(StageProfiler.Stage.GL_READBACK, start);
+
+        listener.onCameraPixels(mReadMat);
+    }
+
+    // The screen pass turns the frame the way CameraBridgeViewBase draws it: the frame is
+    // mirrored around its vertical axis for the front camera and, when the view is taller than
+    // wide, rotated by 90 degrees clockwise. The coordinates are those of the plain pass to
+    // the screen, looked up at the point of the frame that ends up under each vertex.
+    private void updateScreenTexCoords()
+    {
+        boolean rotated = mView.getHeight() > mView.getWidth();
+        boolean mirrored = mMirrored;
+        if(mHaveScreenTexCoords && rotated == mScreenRotated && mirrored == mScreenMirrored)
+            return;
+
+        screenTexOES.position(0);
+        screenTex2D.position(0);
+        for(int i = 0; i < vertices.length; i += 2) {
+            float u = (vertices[i] + 1) / 2, v = (vertices[i + 1] + 1) / 2;
+            if(rotated) {
+                float t = u;
+                u = 1 - v;
+                v = t;
+            }
+            if(mirrored)
+                u = 1 - u;
+            screenTexOES.put(u).put(1 - v);
+            screenTex2D.put(u).put(v);
+        }
+        screenTexOES.position(0);
+        screenTex2D.position(0);
+
+        mScreenRotated = rotated;
+        mScreenMirrored = mirrored;
+        mHaveScreenTexCoords = true;
+    }
+
     // draw texture to FBO or to screen if fbo == 0
     private void drawTex(int tex, boolean isOES, int fbo)
     {
-        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, fbo);
-
         if(fbo == 0)
-            GLES20.glViewport(0, 0, mView.getWidth(), mView.getHeight());
+            drawTex(tex, isOES, fbo, mView.getWidth(), mView.getHeight(), isOES ? screenTexOES : screenTex2D);
         else
-            GLES20.glViewport(0, 0, mFBOWidth, mFBOHeight);
+            drawTex(tex, isOES, fbo, mFBOWidth, mFBOHeight, isOES ? texOES : tex2D);
+    }
+
+    private void drawTex(int tex, boolean isOES, int fbo, int width, int height, FloatBuffer texCoord)
+    {
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, fbo);
+
+        GLES20.glViewport(0, 0, width, height);
 
         GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
 
         if(isOES) {
             GLES20.glUseProgram(progOES);
             GLES20.glVertexAttribPointer(vPosOES, 2, GLES20.GL_FLOAT, false, 4*2, vert);
-            GLES20.glVertexAttribPointer(vTCOES,  2, GLES20.GL_FLOAT, false, 4*2, texOES);
+            GLES20.glVertexAttribPointer(vTCOES,  2, GLES20.GL_FLOAT, false, 4*2, texCoord);
         } else {
             GLES20.glUseProgram(prog2D);
             GLES20.glVertexAttribPointer(vPos2D, 2, GLES20.GL_FLOAT, false, 4*2, vert);
-            GLES20.glVertexAttribPointer(vTC2D,  2, GLES20.GL_FLOAT, false, 4*2, tex2D);
+            GLES20.glVertexAttribPointer(vTC2D,  2, GLES20.GL_FLOAT, false, 4*2, texCoord);
         }
 
         GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
@@ -393,6 +521,7 @@ public abstract class CameraGLRendererBase implements GLSurfaceView.Renderer, Su
             mHaveFBO = false;
             closeCamera();
             deleteSurfaceTexture();
+            deleteReadFBO();
         }
         CameraTextureListener listener = mView.getCameraTextureListener();
         if(listener != null) listener.onCameraViewStopped();
@@ -413,6 +542,11 @@ public abstract class CameraGLRendererBase implements GLSurfaceView.Renderer, Su
         if(listener != null) listener.onCameraViewStarted(mCameraWidth, mCameraHeight);
     }
 
+    public void setMirrored(boolean mirrored) {
+        mMirrored = mirrored;
+        mView.requestRender();
+    }
+
     public void setCameraIndex(int cameraIndex) {
         disableView();
         mCameraIndex = cameraIndex;
@@ -1,6 +1,7 @@
 package org.opencv.android;
 
 import org.opencv.R;
+import org.opencv.core.Mat;
 
 import android.content.Context;
 import android.content.res.TypedArray;
@@ -39,7 +40,25 @@ public class CameraGLSurfaceView extends GLSurfaceView {
         public boolean onCameraTexture(int texIn, int texOut, int width, int height);
     };
 
+    public interface CameraPixelsListener {
+        /**
+         * This method is invoked on the render thread before every frame is read back.
+         * @return `false` to skip the read back of this frame, for example while the previous one is
+         * still being processed
+         */
+        public boolean wantsCameraPixels();
+
+        /**
+         * This method is invoked on the render thread with the pixels of a preview frame, in the
+         * orientation of the camera and scaled down to the width given to setCameraPixelsListener().
+         * @param rgba - the frame in RGBA format, only valid during the call
+         */
+        public void onCameraPixels(Mat rgba);
+    };
+
     private CameraTextureListener mTexListener;
+    private CameraPixelsListener mPixelsListener;
+    private int mPixelsMaxWidth;
     private CameraGLRendererBase mRenderer;
 
     public CameraGLSurfaceView(Context context, AttributeSet attrs) {
@@ -71,6 +90,35 @@ public class CameraGLSurfaceView extends GLSurfaceView {
         return mTexListener;
     }
 
+    /**
+     * Sets the listener that gets the pixels of the preview frames. The frames are scaled down
+     * on the GPU before they are read back, so that only the pixels that are needed leave it.
+     * @param pixelsListener - the listener, null to stop reading back frames
+     * @param maxWidth - the maximum width of the frames handed to the listener, 0 for the preview size
+     */
+    public void setCameraPixelsListener(CameraPixelsListener pixelsListener, int maxWidth)
+    {
+        mPixelsMaxWidth = maxWidth;
+        mPixelsListener = pixelsListener;
+    }
+
+    public CameraPixelsListener getCameraPixelsListener()
+    {
+        return mPixelsListener;
+    }
+
+    public int getCameraPixelsMaxWidth()
+    {
+        return mPixelsMaxWidth;
+    }
+
+    /**
+     * Mirrors the preview around its vertical axis, for the front camera.
+     */
+    public void setMirrored(boolean mirrored) {
+        mRenderer.setMirrored(mirrored);
+    }
+
     public void setCameraIndex(int cameraIndex) {
         mRenderer.setCameraIndex(cameraIndex);
     }
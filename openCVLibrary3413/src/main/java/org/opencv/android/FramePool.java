@@ -0,0 +1,203 @@
+package org.opencv.android;
+
+import org.opencv.core.Mat;
+
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Bounded pool of equally sized frame buffers, so that the camera views do not allocate
+ * a Mat or a byte array per frame. Every buffer has a Mat and, optionally, a byte array of
+ * the same size for the data the camera hands over in Java memory. A pool made with direct()
+ * instead backs every Mat with a direct ByteBuffer, for data the camera hands over in one.
+ *
+ * Buffers are reference counted: acquire() returns a buffer holding one reference, a consumer
+ * that keeps it past the callback calls retain() and every holder calls release() when done.
+ * The last release() returns the buffer to the pool. When all buffers are in use acquire()
+ * returns null and the caller drops the frame instead of growing the pool.
+ *
+ * With leak detection on, the pool remembers where each buffer was acquired and logs the
+ * buffers that were never released when it runs dry or is closed. It costs a stack trace per
+ * acquire, so it is off unless setLeakDetection(true) turns it on while chasing a leak.
+ */
+public class FramePool {
+    private static final String TAG = "FramePool";
+
+    private static volatile boolean sLeakDetection;
+
+    private final Buffer[] mBuffers;
+    private final Buffer[] mFree;
+    private int mFreeCount;
+    private boolean mLeaksReported;
+    private boolean mClosed;
+
+    public class Buffer {
+        private final int mIndex;
+        private final Mat mMat;
+        private final byte[] mData;
+        private final ByteBuffer mDirect;
+        private int mRefCount;
+        private Throwable mAcquiredAt;
+
+        Buffer(int index, int rows, int cols, int type, int dataSize) {
+            mIndex = index;
+            mMat = new Mat(rows, cols, type);
+            mData = dataSize > 0 ? new byte[dataSize] : null;
+            mDirect = null;
+        }
+
+        Buffer(int index, int rows, int cols, int type, ByteBuffer direct, int step) {
+            mIndex = index;
+            mMat = new Mat(rows, cols, type, direct, step);
+            mData = null;
+            mDirect = direct;
+        }
+
+        /**
+         * @return position of the buffer in the pool, between 0 and getCapacity() - 1
+         */
+        public int index() {
+            return mIndex;
+        }
+
+        public Mat mat() {
+            return mMat;
+        }
+
+        /**
+         * @return the byte array of the buffer, null when the pool was created without one
+         */
+        public byte[] data() {
+            return mData;
+        }
+
+        /**
+         * @return the direct buffer behind mat(), cleared for a bulk put, null when the pool was
+         * not made with direct()
+         */
+        public ByteBuffer direct() {
+            if (mDirect != null)
+                mDirect.clear();
+            return mDirect;
+        }
+
+        public void retain() {
+            synchronized (FramePool.this) {
+                if (mRefCount <= 0)
+                    throw new IllegalStateException("Frame buffer " + mIndex + " is not acquired");
+                mRefCount++;
+            }
+        }
+
+        public void release() {
+            synchronized (FramePool.this) {
+                if (mRefCount <= 0)
+                    throw new IllegalStateException("Frame buffer " + mIndex + " released too many times");
+                if (--mRefCount == 0) {
+                    mAcquiredAt = null;
+                    if (mClosed)
+                        mMat.release();
+                    else
+                        mFree[mFreeCount++] = this;
+                }
+            }
+        }
+    }
+
+    /**
+     * @param capacity number of buffers, also the number of frames that can be in flight
+     * @param rows, cols, type of the Mat of every buffer
+     * @param dataSize size of the byte array of every buffer, 0 for none
+     */
+    public FramePool(int capacity, int rows, int cols, int type, int dataSize) {
+        this(capacity);
+        for (int i = 0; i < capacity; i++)
+            mBuffers[i] = new Buffer(i, rows, cols, type, dataSize);
+        fill();
+    }
+
+    private FramePool(int capacity) {
+        mBuffers = new Buffer[capacity];
+        mFree = new Buffer[capacity];
+    }
+
+    /**
+     * @param capacity number of buffers, also the number of frames that can be in flight
+     * @param rows, cols, type of the Mat of every buffer
+     * @param step bytes from one row of the Mat to the next, at least cols times the pixel size
+     * @return a pool whose Mats view direct buffers of rows times step bytes
+     */
+    public static FramePool direct(int capacity, int rows, int cols, int type, int step) {
+        FramePool pool = new FramePool(capacity);
+        for (int i = 0; i < capacity; i++)
+            pool.mBuffers[i] = pool.new Buffer(i, rows, cols, type, ByteBuffer.allocateDirect(rows * step), step);
+        pool.fill();
+        return pool;
+    }
+
+    private void fill() {
+        for (int i = 0; i < mBuffers.length; i++)
+            mFree[i] = mBuffers[mBuffers.length - 1 - i];
+        mFreeCount = mBuffers.length;
+    }
+
+    public static void setLeakDetection(boolean enabled) {
+        sLeakDetection = enabled;
+    }
+
+    public int getCapacity() {
+        return mBuffers.length;
+    }
+
+    public Buffer get(int index) {
+        return mBuffers[index];
+    }
+
+    /**
+     * @return a free buffer holding one reference, null when all of them are in use or the
+     * pool is closed
+     */
+    public synchronized Buffer acquire() {
+        if (mClosed)
+            return null;
+        if (mFreeCount == 0) {
+            if (sLeakDetection && !mLeaksReported) {
+                mLeaksReported = true;
+                reportLeaks("Frame pool exhausted");
+            }
+            return null;
+        }
+        Buffer buffer = mFree[--mFreeCount];
+        mFree[mFreeCount] = null;
+        buffer.mRefCount = 1;
+        if (sLeakDetection)
+            buffer.mAcquiredAt = new Throwable("Frame buffer " + buffer.mIndex + " acquired here");
+        return buffer;
+    }
+
+    /**
+     * Releases the Mats of the free buffers now and of the others on their last release().
+     */
+    public synchronized void close() {
+        if (mClosed)
+            return;
+        mClosed = true;
+        if (sLeakDetection && mFreeCount < mBuffers.length)
+            reportLeaks("Frame pool closed");
+        for (int i = 0; i < mFreeCount; i++) {
+            mFree[i].mMat.release();
+            mFree[i] = null;
+        }
+        mFreeCount = 0;
+    }
+
+    private void reportLeaks(String reason) {
+        for (Buffer buffer : mBuffers) {
+            if (buffer.mRefCount > 0) {
+                Log.w(TAG, reason + ", buffer " + buffer.mIndex + " still has " + buffer.mRefCount
+                        + " references", buffer.mAcquiredAt);
+            }
+        }
+    }
+}
@@ -55,6 +55,14 @@ public class JavaCamera2View extends CameraBridgeViewBase {
     private HandlerThread mBackgroundThread;
     protected Handler mBackgroundHandler;
 
+    // reused for every image, images are delivered one at a time on the background thread
+    private JavaCamera2Frame mFrame;
+    // packed I420 copy of images with planar chroma, created on the first of them
+    private FramePool mPlanarFramePool;
+    // copies of the luma and of the interleaved chroma plane, created on the first image
+    private FramePool mGrayFramePool;
+    private FramePool mUvFramePool;
+
     public JavaCamera2View(Context context, int cameraId) {
         super(context, cameraId);
     }
@@ -183,9 +191,11 @@ public class JavaCamera2View extends CameraBridgeViewBase {
                     assert (planes.length == 3);
                     assert (image.getFormat() == mPreviewFormat);
 
-                    JavaCamera2Frame tempFrame = new JavaCamera2Frame(image);
-                    deliverAndDrawFrame(tempFrame);
-                    tempFrame.release();
+                    if (mFrame == null)
+                        mFrame = new JavaCamera2Frame();
+                    mFrame.setImage(image);
+                    deliverAndDrawFrame(mFrame);
+                    mFrame.clear();
                     image.close();
                 }
             }, mBackgroundHandler);
@@ -247,6 +257,22 @@ public class JavaCamera2View extends CameraBridgeViewBase {
                 mImageReader.close();
                 mImageReader = null;
             }
+            if (null != mFrame) {
+                mFrame.release();
+                mFrame = null;
+            }
+            if (null != mPlanarFramePool) {
+                mPlanarFramePool.close();
+                mPlanarFramePool = null;
+            }
+            if (null != mGrayFramePool) {
+                mGrayFramePool.close();
+                mGrayFramePool = null;
+            }
+            if (null != mUvFramePool) {
+                mUvFramePool.close();
+                mUvFramePool = null;
+            }
         }
         Log.i(LOGTAG, "camera closed!");
     }
@@ -327,21 +353,74 @@ public class JavaCamera2View extends CameraBridgeViewBase {
         return true;
     }
 
-    private class JavaCamera2Frame implements CvCameraViewFrame {
+    private class JavaCamera2Frame implements CvCameraViewYuvFrame {
+        // The plane buffers of every image are new objects, so a Mat wrapping them would be
+        // too. Each plane is copied instead, with one bulk put, into a pooled Mat over a direct
+        // buffer of the same row stride; the copies live until clear().
         @Override
         public Mat gray() {
+            if (mGrayBuffer != null)
+                return mGrayBuffer.mat();
             Image.Plane[] planes = mImage.getPlanes();
             int w = mImage.getWidth();
             int h = mImage.getHeight();
             assert(planes[0].getPixelStride() == 1);
-            ByteBuffer y_plane = planes[0].getBuffer();
-            int y_plane_step = planes[0].getRowStride();
-            mGray = new Mat(h, w, CvType.CV_8UC1, y_plane, y_plane_step);
-            return mGray;
+            if (mGrayFramePool == null)
+                mGrayFramePool = FramePool.direct(1, h, w, CvType.CV_8UC1, planes[0].getRowStride());
+            mGrayBuffer = mGrayFramePool.acquire();
+            copyPlane(planes[0].getBuffer(), mGrayBuffer.direct());
+            return mGrayBuffer.mat();
+        }
+
+        @Override
+        public Mat uv() {
+            if (mUvBuffer != null)
+                return mUvBuffer.mat();
+            Image.Plane[] planes = mImage.getPlanes();
+            if (planes[1].getPixelStride() != 2)
+                return null;
+            int w = mImage.getWidth();
+            int h = mImage.getHeight();
+            if (mUvFramePool == null) {
+                // both chroma planes view the same interleaved buffer, one byte apart, in the
+                // same order for every image of the session
+                Mat u = new Mat(1, 1, CvType.CV_8UC1, planes[1].getBuffer());
+                Mat v = new Mat(1, 1, CvType.CV_8UC1, planes[2].getBuffer());
+                mUvFirstPlane = v.dataAddr() > u.dataAddr() ? 1 : 2;
+                u.release();
+                v.release();
+                mUvFramePool = FramePool.direct(1, h / 2, w / 2, CvType.CV_8UC2, planes[1].getRowStride());
+            }
+            mUvConversion = mUvFirstPlane == 1 ? Imgproc.COLOR_YUV2RGBA_NV12 : Imgproc.COLOR_YUV2RGBA_NV21;
+            mUvBuffer = mUvFramePool.acquire();
+            copyPlane(planes[mUvFirstPlane].getBuffer(), mUvBuffer.direct());
+            return mUvBuffer.mat();
+        }
+
+        // the plane is left as it was, convertToRgba() may still read it
+        private void copyPlane(ByteBuffer plane, ByteBuffer copy) {
+            int position = plane.position();
+            copy.put(plane);
+            plane.position(position);
+        }
+
+        @Override
+        public int uvConversion() {
+            uv();
+            return mUvConversion;
         }
 
         @Override
         public Mat rgba() {
+            long start = StageProfiler.begin();
+            try {
+                return convertToRgba();
+            } finally {
+                StageProfiler.end(StageProfiler.Stage.YUV_TO_RGBA, start);
+            }
+        }
+
+        private Mat convertToRgba() {
             Image.Plane[] planes = mImage.getPlanes();
             int w = mImage.getWidth();
             int h = mImage.getHeight();
@@ -351,26 +430,14 @@ public class JavaCamera2View extends CameraBridgeViewBase {
             if (chromaPixelStride == 2) { // Chroma channels are interleaved
                 assert(planes[0].getPixelStride() == 1);
                 assert(planes[2].getPixelStride() == 2);
-                ByteBuffer y_plane = planes[0].getBuffer();
-                int y_plane_step = planes[0].getRowStride();
-                ByteBuffer uv_plane1 = planes[1].getBuffer();
-                int uv_plane1_step = planes[1].getRowStride();
-                ByteBuffer uv_plane2 = planes[2].getBuffer();
-                int uv_plane2_step = planes[2].getRowStride();
-                Mat y_mat = new Mat(h, w, CvType.CV_8UC1, y_plane, y_plane_step);
-                Mat uv_mat1 = new Mat(h / 2, w / 2, CvType.CV_8UC2, uv_plane1, uv_plane1_step);
-                Mat uv_mat2 = new Mat(h / 2, w / 2, CvType.CV_8UC2, uv_plane2, uv_plane2_step);
-                long addr_diff = uv_mat2.dataAddr() - uv_mat1.dataAddr();
-                if (addr_diff > 0) {
-                    assert(addr_diff == 1);
-                    Imgproc.cvtColorTwoPlane(y_mat, uv_mat1, mRgba, Imgproc.COLOR_YUV2RGBA_NV12);
-                } else {
-                    assert(addr_diff == -1);
-                    Imgproc.cvtColorTwoPlane(y_mat, uv_mat2, mRgba, Imgproc.COLOR_YUV2RGBA_NV21);
-                }
+                // the same copies as gray() and uv(), made once per image
+                Imgproc.cvtColorTwoPlane(gray(), uv(), mRgba, mUvConversion);
                 return mRgba;
             } else { // Chroma channels are not interleaved
-                byte[] yuv_bytes = new byte[w*(h+h/2)];
+                if (mPlanarFramePool == null)
+                    mPlanarFramePool = new FramePool(1, h + h/2, w, CvType.CV_8UC1, w*(h+h/2));
+                FramePool.Buffer buffer = mPlanarFramePool.acquire();
+                byte[] yuv_bytes = buffer.data();
                 ByteBuffer y_plane = planes[0].getBuffer();
                 ByteBuffer u_plane = planes[1].getBuffer();
                 ByteBuffer v_plane = planes[2].getBuffer();
@@ -420,28 +487,47 @@ public class JavaCamera2View extends CameraBridgeViewBase {
                     }
                 }
 
-                Mat yuv_mat = new Mat(h+h/2, w, CvType.CV_8UC1);
+                Mat yuv_mat = buffer.mat();
                 yuv_mat.put(0, 0, yuv_bytes);
                 Imgproc.cvtColor(yuv_mat, mRgba, Imgproc.COLOR_YUV2RGBA_I420, 4);
+                buffer.release();
                 return mRgba;
             }
         }
 
 
-        public JavaCamera2Frame(Image image) {
+        public JavaCamera2Frame() {
             super();
-            mImage = image;
             mRgba = new Mat();
-            mGray = new Mat();
+        }
+
+        public void setImage(Image image) {
+            mImage = image;
+        }
+
+        // hands the plane copies of the current image back to their pools before it is closed
+        public void clear() {
+            if (mGrayBuffer != null) {
+                mGrayBuffer.release();
+                mGrayBuffer = null;
+            }
+            if (mUvBuffer != null) {
+                mUvBuffer.release();
+                mUvBuffer = null;
+            }
+            mImage = null;
         }
 
         public void release() {
+            clear();
             mRgba.release();
-            mGray.release();
         }
 
         private Image mImage;
         private Mat mRgba;
-        private Mat mGray;
+        private FramePool.Buffer mGrayBuffer;
+        private FramePool.Buffer mUvBuffer;
+        private int mUvFirstPlane;
+        private int mUvConversion;
     };
 }
@@ -12,7 +12,6 @@ import android.util.AttributeSet;
 import android.util.Log;
 import android.view.ViewGroup.LayoutParams;
 
-import org.opencv.BuildConfig;
 import org.opencv.core.CvType;
 import org.opencv.core.Mat;
 import org.opencv.core.Size;
@@ -32,9 +31,13 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
     private static final int MAGIC_TEXTURE_ID = 10;
     private static final String TAG = "JavaCameraView";
 
+    // frames in flight: one being copied from the camera, one waiting, one being delivered
+    private static final int FRAME_POOL_CAPACITY = 3;
+
     private byte mBuffer[];
-    private Mat[] mFrameChain;
-    private int mChainIdx = 0;
+    private FramePool mFramePool;
+    private FramePool.Buffer mPendingFrame;
+    private Mat mFrameRgba;
     private Thread mThread;
     private boolean mStopThread;
 
@@ -195,15 +198,15 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
                     mCamera.addCallbackBuffer(mBuffer);
                     mCamera.setPreviewCallbackWithBuffer(this);
 
-                    mFrameChain = new Mat[2];
-                    mFrameChain[0] = new Mat(mFrameHeight + (mFrameHeight/2), mFrameWidth, CvType.CV_8UC1);
-                    mFrameChain[1] = new Mat(mFrameHeight + (mFrameHeight/2), mFrameWidth, CvType.CV_8UC1);
+                    mFramePool = new FramePool(FRAME_POOL_CAPACITY, mFrameHeight + (mFrameHeight/2), mFrameWidth,
+                            CvType.CV_8UC1, 0);
+                    mFrameRgba = new Mat();
 
                     AllocateCache();
 
-                    mCameraFrame = new JavaCameraFrame[2];
-                    mCameraFrame[0] = new JavaCameraFrame(mFrameChain[0], mFrameWidth, mFrameHeight);
-                    mCameraFrame[1] = new JavaCameraFrame(mFrameChain[1], mFrameWidth, mFrameHeight);
+                    mCameraFrame = new JavaCameraFrame[FRAME_POOL_CAPACITY];
+                    for (int i = 0; i < FRAME_POOL_CAPACITY; i++)
+                        mCameraFrame[i] = new JavaCameraFrame(mFramePool.get(i).mat(), mFrameWidth, mFrameHeight);
 
                     if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
                         mSurfaceTexture = new SurfaceTexture(MAGIC_TEXTURE_ID);
@@ -235,14 +238,20 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
                 mCamera.release();
             }
             mCamera = null;
-            if (mFrameChain != null) {
-                mFrameChain[0].release();
-                mFrameChain[1].release();
+            if (mPendingFrame != null) {
+                mPendingFrame.release();
+                mPendingFrame = null;
             }
             if (mCameraFrame != null) {
-                mCameraFrame[0].release();
-                mCameraFrame[1].release();
+                for (JavaCameraFrame cameraFrame : mCameraFrame)
+                    cameraFrame.release();
+            }
+            if (mFramePool != null) {
+                mFramePool.close();
+                mFramePool = null;
             }
+            if (mFrameRgba != null)
+                mFrameRgba.release();
         }
     }
 
@@ -299,49 +308,79 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
 
     @Override
     public void onPreviewFrame(byte[] frame, Camera arg1) {
-        if (BuildConfig.DEBUG)
-            Log.d(TAG, "Preview Frame received. Frame size: " + frame.length);
-        synchronized (this) {
-            mFrameChain[mChainIdx].put(0, 0, frame);
-            mCameraFrameReady = true;
-            this.notify();
+        FramePool framePool = mFramePool;
+        // all buffers in flight means the worker is stuck on a frame, this one is dropped
+        FramePool.Buffer buffer = framePool != null ? framePool.acquire() : null;
+        if (buffer != null) {
+            buffer.mat().put(0, 0, frame);
+            synchronized (this) {
+                // the worker did not take the previous frame, the new one replaces it
+                if (mPendingFrame != null)
+                    mPendingFrame.release();
+                mPendingFrame = buffer;
+                mCameraFrameReady = true;
+                this.notify();
+            }
         }
         if (mCamera != null)
             mCamera.addCallbackBuffer(mBuffer);
     }
 
-    private class JavaCameraFrame implements CvCameraViewFrame {
+    private class JavaCameraFrame implements CvCameraViewYuvFrame {
         @Override
         public Mat gray() {
-            return mYuvFrameData.submat(0, mHeight, 0, mWidth);
+            if (mGray == null)
+                mGray = mYuvFrameData.submat(0, mHeight, 0, mWidth);
+            return mGray;
+        }
+
+        @Override
+        public Mat uv() {
+            if (mPreviewFormat != ImageFormat.NV21)
+                return null;
+            // V and U interleaved below the Y rows
+            if (mUv == null)
+                mUv = mYuvFrameData.submat(mHeight, mHeight + mHeight / 2, 0, mWidth).reshape(2);
+            return mUv;
+        }
+
+        @Override
+        public int uvConversion() {
+            return Imgproc.COLOR_YUV2RGBA_NV21;
         }
 
         @Override
         public Mat rgba() {
+            long start = StageProfiler.begin();
             if (mPreviewFormat == ImageFormat.NV21)
-                Imgproc.cvtColor(mYuvFrameData, mRgba, Imgproc.COLOR_YUV2RGBA_NV21, 4);
+                Imgproc.cvtColor(mYuvFrameData, mFrameRgba, Imgproc.COLOR_YUV2RGBA_NV21, 4);
             else if (mPreviewFormat == ImageFormat.YV12)
-                Imgproc.cvtColor(mYuvFrameData, mRgba, Imgproc.COLOR_YUV2RGB_I420, 4);  // COLOR_YUV2RGBA_YV12 produces inverted colors
+                Imgproc.cvtColor(mYuvFrameData, mFrameRgba, Imgproc.COLOR_YUV2RGB_I420, 4);  // COLOR_YUV2RGBA_YV12 produces inverted colors
             else
                 throw new IllegalArgumentException("Preview Format can be NV21 or YV12");
 
-            return mRgba;
+            StageProfiler.end(StageProfiler.Stage.YUV_TO_RGBA, start);
+            return mFrameRgba;
         }
 
+        // frames are delivered one at a time, they share the RGBA Mat of the view
         public JavaCameraFrame(Mat Yuv420sp, int width, int height) {
             super();
             mWidth = width;
             mHeight = height;
             mYuvFrameData = Yuv420sp;
-            mRgba = new Mat();
         }
 
         public void release() {
-            mRgba.release();
+            if (mGray != null)
+                mGray.release();
+            if (mUv != null)
+                mUv.release();
         }
 
         private Mat mYuvFrameData;
-        private Mat mRgba;
+        private Mat mGray;
+        private Mat mUv;
         private int mWidth;
         private int mHeight;
     };
@@ -351,7 +390,7 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
         @Override
         public void run() {
             do {
-                boolean hasFrame = false;
+                FramePool.Buffer frame = null;
                 synchronized (JavaCameraView.this) {
                     try {
                         while (!mCameraFrameReady && !mStopThread) {
@@ -362,15 +401,16 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
                     }
                     if (mCameraFrameReady)
                     {
-                        mChainIdx = 1 - mChainIdx;
+                        frame = mPendingFrame;
+                        mPendingFrame = null;
                         mCameraFrameReady = false;
-                        hasFrame = true;
                     }
                 }
 
-                if (!mStopThread && hasFrame) {
-                    if (!mFrameChain[1 - mChainIdx].empty())
-                        deliverAndDrawFrame(mCameraFrame[1 - mChainIdx]);
+                if (frame != null) {
+                    if (!mStopThread)
+                        deliverAndDrawFrame(mCameraFrame[frame.index()]);
+                    frame.release();
                 }
             } while (!mStopThread);
             Log.d(TAG, "Finish processing thread");
@@ -0,0 +1,161 @@
+package org.opencv.android;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency histograms for every stage of the frame pipeline, from the camera conversion
+ * to the canvas blit. Samples go into lock-free log-linear buckets (16 per power of two,
+ * so percentiles are within about 6%), which makes recording a nanoTime() call and one
+ * atomic increment. Nothing is recorded until the profiler is enabled. The class does not
+ * depend on Android, so the pipeline can be profiled on a desktop JVM as well; see
+ * StageProfilerOverlay for drawing the report on the camera view.
+ *
+ * Usage:
+ * <pre>
+ *     long start = StageProfiler.begin();
+ *     ... stage ...
+ *     StageProfiler.end(StageProfiler.Stage.DETECT, start);
+ * </pre>
+ */
+public final class StageProfiler {
+    public enum Stage {
+        YUV_TO_RGBA, GL_READBACK, ORIENTATION, GRAY, DETECT, TRACK, ROI_CROP, PREPROCESS, INFERENCE,
+        OVERLAY, MAT_TO_BITMAP, CANVAS_BLIT
+    }
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // up to 2^40 ns, about 18 minutes
+    private static final int BUCKETS = 40 * SUB_BUCKETS;
+
+    private static final AtomicLongArray[] sCounts = new AtomicLongArray[Stage.values().length];
+    private static final AtomicLongArray sTotals = new AtomicLongArray(Stage.values().length);
+    private static volatile boolean sEnabled;
+
+    static {
+        for (int i = 0; i < sCounts.length; i++) {
+            sCounts[i] = new AtomicLongArray(BUCKETS);
+        }
+    }
+
+    private StageProfiler() {
+    }
+
+    public static void setEnabled(boolean enabled) {
+        sEnabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    /**
+     * @return start time to pass to end(), 0 when the profiler is disabled
+     */
+    public static long begin() {
+        return sEnabled ? System.nanoTime() : 0;
+    }
+
+    public static void end(Stage stage, long begin) {
+        if (begin != 0) {
+            record(stage, System.nanoTime() - begin);
+        }
+    }
+
+    public static void record(Stage stage, long nanos) {
+        sCounts[stage.ordinal()].incrementAndGet(bucketOf(nanos));
+        sTotals.addAndGet(stage.ordinal(), nanos);
+    }
+
+    public static long count(Stage stage) {
+        AtomicLongArray counts = sCounts[stage.ordinal()];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += counts.get(i);
+        }
+        return total;
+    }
+
+    /**
+     * @return exact sum of all samples of the stage in nanoseconds; the difference between
+     * two calls is the time spent in the stage in between
+     */
+    public static long total(Stage stage) {
+        return sTotals.get(stage.ordinal());
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return latency in nanoseconds below which the given share of the samples falls,
+     * 0 when nothing was recorded for the stage
+     */
+    public static long percentile(Stage stage, double percentile) {
+        AtomicLongArray counts = sCounts[stage.ordinal()];
+        long total = count(stage);
+        if (total == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(total * percentile / 100.0));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return highestValueIn(i);
+            }
+        }
+        return highestValueIn(BUCKETS - 1);
+    }
+
+    public static void reset() {
+        for (AtomicLongArray counts : sCounts) {
+            for (int i = 0; i < BUCKETS; i++) {
+                counts.set(i, 0);
+            }
+        }
+        for (int i = 0; i < sTotals.length(); i++) {
+            sTotals.set(i, 0);
+        }
+    }
+
+    /**
+     * One line per stage with samples: p50/p95/p99 in milliseconds.
+     */
+    public static String[] report() {
+        int lines = 0;
+        for (Stage stage : Stage.values()) {
+            if (count(stage) > 0) {
+                lines++;
+            }
+        }
+        String[] report = new String[lines];
+        int line = 0;
+        for (Stage stage : Stage.values()) {
+            if (count(stage) > 0) {
+                report[line++] = String.format(java.util.Locale.US, "%s p50 %.2f p95 %.2f p99 %.2f ms",
+                        stage.name(), percentile(stage, 50) / 1e6, percentile(stage, 95) / 1e6,
+                        percentile(stage, 99) / 1e6);
+            }
+        }
+        return report;
+    }
+
+    // values below 2 * SUB_BUCKETS map to themselves, above they keep SUB_BUCKET_BITS
+    // significant bits after the leading one
+    static int bucketOf(long nanos) {
+        if (nanos < 2 * SUB_BUCKETS) {
+            return (int) Math.max(0, nanos);
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(nanos) - SUB_BUCKET_BITS;
+        int index = (shift + 1) * SUB_BUCKETS + (int) ((nanos >>> shift) - SUB_BUCKETS);
+        return Math.min(index, BUCKETS - 1);
+    }
+
+    static long highestValueIn(int bucket) {
+        if (bucket < 2 * SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long subBucket = bucket % SUB_BUCKETS;
+        return ((SUB_BUCKETS + subBucket + 1) << shift) - 1;
+    }
+}
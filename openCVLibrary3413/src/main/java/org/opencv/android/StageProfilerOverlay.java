@@ -0,0 +1,33 @@
+package org.opencv.android;
+
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+
+/**
+ * Draws the StageProfiler report on a canvas, refreshed every few frames like the FpsMeter.
+ */
+public class StageProfilerOverlay {
+    private static final int STEP = 20;
+
+    private final Paint mPaint;
+    private String[] mLines = new String[0];
+    private int mFramesCounter;
+
+    public StageProfilerOverlay() {
+        mPaint = new Paint();
+        mPaint.setColor(Color.YELLOW);
+        mPaint.setTextSize(20);
+    }
+
+    public void draw(Canvas canvas, float offsetx, float offsety) {
+        if (mFramesCounter++ % STEP == 0) {
+            mLines = StageProfiler.report();
+        }
+        float y = offsety;
+        for (String line : mLines) {
+            canvas.drawText(line, offsetx, y, mPaint);
+            y += mPaint.getTextSize() * 1.2f;
+        }
+    }
+}
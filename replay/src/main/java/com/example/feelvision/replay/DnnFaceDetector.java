@@ -0,0 +1,111 @@
+package com.example.feelvision.replay;
+
+import com.example.feelvision.FaceDetector;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfFloat;
+import org.opencv.core.MatOfInt;
+import org.opencv.core.MatOfRect;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.dnn.Dnn;
+import org.opencv.dnn.Net;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// The ResNet-10 SSD face detector of the OpenCV samples (res10_300x300_ssd), run with
+// org.opencv.dnn. Boxes under the confidence threshold or outside the size range are dropped,
+// and Dnn.NMSBoxes suppresses those that overlap a more confident one.
+//
+// The model was trained on color images; the detection image is gray, so the gray value is
+// repeated in the three channels. That costs a little recall, but keeps the detector on the
+// same input as the cascades and the tracking.
+//
+// The model is not bundled with the app, FrameReplay runs it with --dnn-model to compare the
+// cascades against it.
+class DnnFaceDetector implements FaceDetector {
+    private static final Size INPUT_SIZE = new Size(300, 300);
+    // per channel mean the model was trained with, in BGR order
+    private static final Scalar MEAN = new Scalar(104, 177, 123);
+    // image id, class, confidence, left, top, right, bottom
+    private static final int DETECTION_LENGTH = 7;
+    // overlap above which the less confident of two boxes is dropped
+    private static final float NMS_THRESHOLD = 0.4f;
+
+    private final Net net;
+    private final Mat colorImage = new Mat();
+    private final float[] detection = new float[DETECTION_LENGTH];
+    private final List<Rect> candidates = new ArrayList<>();
+    private final List<Float> confidences = new ArrayList<>();
+    private final MatOfRect candidateBoxes = new MatOfRect();
+    private final MatOfFloat candidateConfidences = new MatOfFloat();
+    private final MatOfInt kept = new MatOfInt();
+    private float confidenceThreshold = 0.5f;
+
+    DnnFaceDetector(Net net) {
+        this.net = net;
+    }
+
+    void setConfidenceThreshold(float confidenceThreshold) {
+        this.confidenceThreshold = confidenceThreshold;
+    }
+
+    @Override
+    public Rect[] detect(Mat grayscaleImage, double minSize, double maxSize) {
+        int width = grayscaleImage.cols();
+        int height = grayscaleImage.rows();
+        Imgproc.cvtColor(grayscaleImage, colorImage, Imgproc.COLOR_GRAY2BGR);
+        Mat blob = Dnn.blobFromImage(colorImage, 1.0, INPUT_SIZE, MEAN, false, false);
+        net.setInput(blob);
+        Mat output = net.forward();
+        blob.release();
+
+        // 1 x 1 x N x 7, the box corners are relative to the image
+        Mat detections = output.reshape(1, (int) (output.total() / DETECTION_LENGTH));
+        candidates.clear();
+        confidences.clear();
+        for (int i = 0; i < detections.rows(); i++) {
+            detections.get(i, 0, detection);
+            if (detection[2] < confidenceThreshold) {
+                continue;
+            }
+            int left = Math.max(0, Math.round(detection[3] * width));
+            int top = Math.max(0, Math.round(detection[4] * height));
+            int right = Math.min(width, Math.round(detection[5] * width));
+            int bottom = Math.min(height, Math.round(detection[6] * height));
+            int faceWidth = right - left;
+            if (faceWidth <= 0 || bottom <= top || faceWidth < minSize || (maxSize > 0 && faceWidth > maxSize)) {
+                continue;
+            }
+            candidates.add(new Rect(left, top, faceWidth, bottom - top));
+            confidences.add(detection[2]);
+        }
+        detections.release();
+        output.release();
+        if (candidates.isEmpty()) {
+            return new Rect[0];
+        }
+
+        candidateBoxes.fromList(candidates);
+        candidateConfidences.fromList(confidences);
+        Dnn.NMSBoxes(candidateBoxes, candidateConfidences, confidenceThreshold, NMS_THRESHOLD, kept);
+        int[] indices = kept.toArray();
+        Rect[] faces = new Rect[indices.length];
+        for (int i = 0; i < indices.length; i++) {
+            faces[i] = candidates.get(indices[i]);
+        }
+        return faces;
+    }
+
+    // the Java binding frees the network itself only in its finalizer
+    @Override
+    public void release() {
+        colorImage.release();
+        candidateBoxes.release();
+        candidateConfidences.release();
+        kept.release();
+    }
+}
@@ -0,0 +1,464 @@
+package com.example.feelvision.replay;
+
+import com.example.feelvision.CascadeFaceDetector;
+import com.example.feelvision.DetectionResolutionPolicy;
+import com.example.feelvision.FaceDetector;
+import com.example.feelvision.FrameAnalyzer;
+import com.example.feelvision.FrameOrientation;
+import com.example.feelvision.RecognitionResult;
+import com.example.feelvision.SearchWindowDetector;
+
+import org.opencv.android.StageProfiler;
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.dnn.Dnn;
+import org.opencv.dnn.Net;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.objdetect.CascadeClassifier;
+import org.opencv.videoio.VideoCapture;
+import org.opencv.videoio.Videoio;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+// Headless counterpart of CameraActivity.onCameraFrame: reads a video file or a directory of
+// images, feeds every frame to FrameAnalyzer and writes one line per frame, as JSON lines or
+// CSV depending on the extension of the output file.
+//
+// Recorded frames are upright, as the user saw them; they are rotated to the sensor
+// orientation the camera delivers before analysis, mirrored for the front camera. With --yuv
+// they are handed over as NV21 planes, like CameraActivity does with YUV camera frames.
+//
+// With --reference, the faces of every frame are compared to those of a CSV written by an
+// earlier replay of the same input, for instance with the DNN detector at full resolution
+// or corrected by hand, and the recall and precision of the detector are printed.
+//
+// With --stand-in-classifier, faces are classified by ProjectionClassifier and a second
+// analyzer without the inference cache runs on the same frames; the summary gives the hit
+// rate of the cache and how many face labels agree with those of the uncached run.
+public class FrameReplay {
+    private static final int INPUT_SIZE = 48;
+    private static final int NUM_CLASSES = 7;
+    // intersection over union for a face to match one of the reference
+    private static final double MATCH_IOU = 0.5;
+    private static final StageProfiler.Stage[] STAGES = StageProfiler.Stage.values();
+
+    private final FrameOrientation frameOrientation = new FrameOrientation();
+    private final Mat rgbaImage = new Mat();
+    private final Mat frame = new Mat();
+    private final Mat yuvImage = new Mat();
+    private final Mat uvPlane = new Mat();
+    private final long[] stageTotals = new long[STAGES.length];
+    private final FrameAnalyzer frameAnalyzer;
+    private final PrintWriter writer;
+    private final boolean csv;
+    private final boolean yuv;
+    private List<Rect[]> referenceFaces;
+    private FrameAnalyzer uncachedAnalyzer;
+    private int frameCount;
+    private long analyzeNanos;
+    private int referenceCount;
+    private int detectedCount;
+    private int matchedCount;
+    private int comparedFaces;
+    private int agreeingFaces;
+
+    private FrameReplay(FrameAnalyzer frameAnalyzer, PrintWriter writer, boolean csv, boolean mirrored,
+                        boolean yuv) {
+        this.frameAnalyzer = frameAnalyzer;
+        this.writer = writer;
+        this.csv = csv;
+        this.yuv = yuv;
+        frameOrientation.setMirrored(mirrored);
+        frameAnalyzer.setMirrored(mirrored);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("usage: FrameReplay <video file | image directory> <results.jsonl | results.csv>"
+                    + " [--mirrored] [--yuv] [--detection-width <pixels, 0 for full>] [--fps <frames per second>]"
+                    + " [--detector <haar | lbp | dnn>] [--cascade <xml of the haar or lbp cascade>]"
+                    + " [--dnn-model <prototxt> <caffemodel>] [--reference <results.csv>]"
+                    + " [--stand-in-classifier] [--inference-cache-threshold <0-1, 0 disables>]");
+            System.exit(2);
+        }
+        File input = new File(args[0]);
+        File output = new File(args[1]);
+        boolean mirrored = false;
+        boolean yuv = false;
+        int detectionWidth = 320;
+        double fps = 30;
+        String detector = "haar";
+        String cascade = System.getProperty("feelvision.cascade");
+        String prototxt = null;
+        String caffeModel = null;
+        File reference = null;
+        boolean standInClassifier = false;
+        double inferenceCacheThreshold = -1;
+        for (int i = 2; i < args.length; i++) {
+            switch (args[i]) {
+                case "--mirrored":
+                    mirrored = true;
+                    break;
+                case "--yuv":
+                    yuv = true;
+                    break;
+                case "--detection-width":
+                    detectionWidth = Integer.parseInt(args[++i]);
+                    break;
+                case "--fps":
+                    fps = Double.parseDouble(args[++i]);
+                    break;
+                case "--detector":
+                    detector = args[++i];
+                    break;
+                case "--cascade":
+                    cascade = args[++i];
+                    break;
+                case "--dnn-model":
+                    prototxt = args[++i];
+                    caffeModel = args[++i];
+                    break;
+                case "--reference":
+                    reference = new File(args[++i]);
+                    break;
+                case "--stand-in-classifier":
+                    standInClassifier = true;
+                    break;
+                case "--inference-cache-threshold":
+                    inferenceCacheThreshold = Double.parseDouble(args[++i]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        nu.pattern.OpenCV.loadLocally();
+        FaceDetector faceDetector = createFaceDetector(detector, cascade, prototxt, caffeModel);
+        SearchWindowDetector searchWindowDetector = new SearchWindowDetector(faceDetector);
+        FrameAnalyzer frameAnalyzer = new FrameAnalyzer(INPUT_SIZE, NUM_CLASSES, searchWindowDetector,
+                standInClassifier ? new ProjectionClassifier(INPUT_SIZE, NUM_CLASSES) : null);
+        frameAnalyzer.setDetectionResolutionPolicy(new DetectionResolutionPolicy(detectionWidth));
+        if (inferenceCacheThreshold >= 0) {
+            frameAnalyzer.setInferenceCacheThreshold(inferenceCacheThreshold);
+        }
+        FrameAnalyzer uncachedAnalyzer = null;
+        if (standInClassifier) {
+            uncachedAnalyzer = new FrameAnalyzer(INPUT_SIZE, NUM_CLASSES, new SearchWindowDetector(faceDetector),
+                    new ProjectionClassifier(INPUT_SIZE, NUM_CLASSES));
+            uncachedAnalyzer.setDetectionResolutionPolicy(new DetectionResolutionPolicy(detectionWidth));
+            uncachedAnalyzer.setInferenceCacheThreshold(0);
+        }
+        StageProfiler.setEnabled(true);
+
+        try (PrintWriter writer = new PrintWriter(output, "UTF-8")) {
+            FrameReplay replay = new FrameReplay(frameAnalyzer, writer,
+                    output.getName().toLowerCase(Locale.US).endsWith(".csv"), mirrored, yuv);
+            if (reference != null) {
+                replay.referenceFaces = readReference(reference);
+            }
+            if (uncachedAnalyzer != null) {
+                uncachedAnalyzer.setMirrored(mirrored);
+                replay.uncachedAnalyzer = uncachedAnalyzer;
+            }
+            System.out.println("Detector: " + detector);
+            if (input.isDirectory()) {
+                replay.replayImages(input, fps);
+            } else {
+                replay.replayVideo(input, fps);
+            }
+            replay.printSummary(searchWindowDetector);
+            replay.release();
+        }
+        frameAnalyzer.release();
+        if (uncachedAnalyzer != null) {
+            uncachedAnalyzer.release();
+        }
+        searchWindowDetector.release();
+    }
+
+    // the Haar and LBP cascades differ only in the file they are loaded from
+    private static FaceDetector createFaceDetector(String detector, String cascade, String prototxt,
+                                                   String caffeModel) {
+        switch (detector) {
+            case "haar":
+            case "lbp":
+                CascadeClassifier cascadeClassifier = new CascadeClassifier(cascade);
+                if (cascadeClassifier.empty()) {
+                    throw new IllegalStateException("Cannot load the cascade from " + cascade);
+                }
+                return new CascadeFaceDetector(cascadeClassifier);
+            case "dnn":
+                if (prototxt == null) {
+                    throw new IllegalArgumentException("The dnn detector needs --dnn-model");
+                }
+                Net net = Dnn.readNetFromCaffe(prototxt, caffeModel);
+                if (net.empty()) {
+                    throw new IllegalStateException("Cannot load the model from " + caffeModel);
+                }
+                return new DnnFaceDetector(net);
+            default:
+                throw new IllegalArgumentException("Unknown detector " + detector);
+        }
+    }
+
+    // faces of every frame of a CSV written by writeCsv
+    private static List<Rect[]> readReference(File file) throws IOException {
+        List<Rect[]> frames = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line = reader.readLine();
+            while ((line = reader.readLine()) != null) {
+                String faces = line.substring(line.lastIndexOf(',') + 1);
+                List<Rect> rects = new ArrayList<>();
+                if (!faces.isEmpty()) {
+                    for (String face : faces.split("\\|")) {
+                        String[] fields = face.split(":");
+                        rects.add(new Rect(Integer.parseInt(fields[0]), Integer.parseInt(fields[1]),
+                                Integer.parseInt(fields[2]), Integer.parseInt(fields[3])));
+                    }
+                }
+                frames.add(rects.toArray(new Rect[0]));
+            }
+        }
+        return frames;
+    }
+
+    private void replayImages(File directory, double fps) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            throw new IllegalArgumentException("Cannot list " + directory);
+        }
+        Arrays.sort(files);
+        writeHeader();
+        for (File file : files) {
+            Mat image = Imgcodecs.imread(file.getAbsolutePath());
+            if (image.empty()) {
+                continue;
+            }
+            analyze(image, Math.round(frameCount * 1e9 / fps));
+            image.release();
+        }
+    }
+
+    private void replayVideo(File file, double fps) {
+        VideoCapture videoCapture = new VideoCapture(file.getAbsolutePath());
+        if (!videoCapture.isOpened()) {
+            throw new IllegalArgumentException("Cannot open " + file);
+        }
+        writeHeader();
+        Mat image = new Mat();
+        while (videoCapture.read(image)) {
+            // container timestamps keep the timing of variable frame rate recordings
+            double positionMs = videoCapture.get(Videoio.CAP_PROP_POS_MSEC);
+            long timestampNanos = positionMs > 0 ? Math.round(positionMs * 1e6) : Math.round(frameCount * 1e9 / fps);
+            analyze(image, timestampNanos);
+        }
+        image.release();
+        videoCapture.release();
+    }
+
+    private void analyze(Mat bgrImage, long timestampNanos) {
+        Imgproc.cvtColor(bgrImage, rgbaImage, Imgproc.COLOR_BGR2RGBA);
+        frameOrientation.toFrame(rgbaImage, frame);
+
+        // the camera delivers YUV, the conversion is not part of the measured time
+        Mat yPlane = yuv ? toNv21(frame) : null;
+        for (int i = 0; i < STAGES.length; i++) {
+            stageTotals[i] = StageProfiler.total(STAGES[i]);
+        }
+        long start = System.nanoTime();
+        RecognitionResult result;
+        if (yPlane != null) {
+            result = frameAnalyzer.analyze(yPlane, uvPlane, Imgproc.COLOR_YUV2RGBA_NV21, timestampNanos);
+        } else {
+            result = frameAnalyzer.analyze(frame, timestampNanos);
+        }
+        long elapsed = System.nanoTime() - start;
+        analyzeNanos += elapsed;
+        for (int i = 0; i < STAGES.length; i++) {
+            stageTotals[i] = StageProfiler.total(STAGES[i]) - stageTotals[i];
+        }
+
+        if (uncachedAnalyzer != null) {
+            // neither timed nor profiled
+            StageProfiler.setEnabled(false);
+            RecognitionResult uncached = yPlane != null
+                    ? uncachedAnalyzer.analyze(yPlane, uvPlane, Imgproc.COLOR_YUV2RGBA_NV21, timestampNanos)
+                    : uncachedAnalyzer.analyze(frame, timestampNanos);
+            StageProfiler.setEnabled(true);
+            compareToUncached(result, uncached);
+        }
+        if (yPlane != null) {
+            yPlane.release();
+        }
+
+        if (referenceFaces != null && frameCount < referenceFaces.size()) {
+            compareToReference(result, referenceFaces.get(frameCount));
+        }
+        if (csv) {
+            writeCsv(result, elapsed);
+        } else {
+            writeJson(result, elapsed);
+        }
+        frameCount++;
+    }
+
+    // every reference face matches at most one detected face
+    private void compareToReference(RecognitionResult result, Rect[] reference) {
+        boolean[] used = new boolean[result.getFaceCount()];
+        for (Rect expected : reference) {
+            for (int i = 0; i < used.length; i++) {
+                if (!used[i] && intersectionOverUnion(expected, result.getFace(i)) >= MATCH_IOU) {
+                    used[i] = true;
+                    matchedCount++;
+                    break;
+                }
+            }
+        }
+        referenceCount += reference.length;
+        detectedCount += used.length;
+    }
+
+    // both analyzers find the same boxes, only the scores of the faces can differ
+    private void compareToUncached(RecognitionResult result, RecognitionResult uncached) {
+        int faces = Math.min(result.getFaceCount(), uncached.getFaceCount());
+        for (int i = 0; i < faces; i++) {
+            if (result.getFace(i).equals(uncached.getFace(i))) {
+                comparedFaces++;
+                if (result.getEmotion(i).equals(uncached.getEmotion(i))) {
+                    agreeingFaces++;
+                }
+            }
+        }
+    }
+
+    private static double intersectionOverUnion(Rect a, Rect b) {
+        int width = Math.min(a.x + a.width, b.x + b.width) - Math.max(a.x, b.x);
+        int height = Math.min(a.y + a.height, b.y + b.height) - Math.max(a.y, b.y);
+        if (width <= 0 || height <= 0) {
+            return 0;
+        }
+        double intersection = (double) width * height;
+        return intersection / (a.area() + b.area() - intersection);
+    }
+
+    // yuvImage gets the I420 layout, the returned Y plane views its first rows and the U and V
+    // planes are interleaved into uvPlane, V first. Cameras deliver even sizes, images of other
+    // sizes lose their last rows and column.
+    private Mat toNv21(Mat rgba) {
+        int rows = rgba.rows() & ~3;
+        int cols = rgba.cols() & ~1;
+        Mat even = rgba.submat(0, rows, 0, cols);
+        Imgproc.cvtColor(even, yuvImage, Imgproc.COLOR_RGBA2YUV_I420);
+        even.release();
+        int quarter = rows / 4;
+        Mat u = yuvImage.submat(rows, rows + quarter, 0, cols).reshape(1, rows / 2);
+        Mat v = yuvImage.submat(rows + quarter, rows + 2 * quarter, 0, cols).reshape(1, rows / 2);
+        Core.merge(Arrays.asList(v, u), uvPlane);
+        u.release();
+        v.release();
+        return yuvImage.submat(0, rows, 0, cols);
+    }
+
+    private void writeHeader() {
+        if (!csv) {
+            return;
+        }
+        StringBuilder header = new StringBuilder("frame,timeMs,analyzeMs");
+        for (StageProfiler.Stage stage : STAGES) {
+            header.append(',').append(stage.name());
+        }
+        // x:y:width:height:emotion for every face, separated by |
+        header.append(",faces");
+        writer.println(header);
+    }
+
+    private void writeCsv(RecognitionResult result, long elapsed) {
+        StringBuilder line = new StringBuilder();
+        line.append(frameCount).append(',').append(millis(result.getTimestampNanos()))
+                .append(',').append(millis(elapsed));
+        for (long stageNanos : stageTotals) {
+            line.append(',').append(millis(stageNanos));
+        }
+        line.append(',');
+        for (int i = 0; i < result.getFaceCount(); i++) {
+            Rect face = result.getFace(i);
+            if (i > 0) {
+                line.append('|');
+            }
+            line.append(face.x).append(':').append(face.y).append(':').append(face.width).append(':')
+                    .append(face.height).append(':').append(result.getEmotion(i));
+        }
+        writer.println(line);
+    }
+
+    private void writeJson(RecognitionResult result, long elapsed) {
+        StringBuilder line = new StringBuilder();
+        line.append("{\"frame\":").append(frameCount)
+                .append(",\"timeMs\":").append(millis(result.getTimestampNanos()))
+                .append(",\"analyzeMs\":").append(millis(elapsed))
+                .append(",\"faces\":[");
+        for (int i = 0; i < result.getFaceCount(); i++) {
+            Rect face = result.getFace(i);
+            if (i > 0) {
+                line.append(',');
+            }
+            line.append("{\"x\":").append(face.x).append(",\"y\":").append(face.y)
+                    .append(",\"width\":").append(face.width).append(",\"height\":").append(face.height)
+                    .append(",\"emotion\":\"").append(result.getEmotion(i)).append("\"}");
+        }
+        line.append("],\"stagesMs\":{");
+        for (int i = 0; i < STAGES.length; i++) {
+            if (i > 0) {
+                line.append(',');
+            }
+            line.append('"').append(STAGES[i].name()).append("\":").append(millis(stageTotals[i]));
+        }
+        line.append("}}");
+        writer.println(line);
+    }
+
+    private void printSummary(SearchWindowDetector searchWindowDetector) {
+        System.out.println(String.format(Locale.US, "%d frames, %.1f analysed frames per second",
+                frameCount, analyzeNanos == 0 ? 0 : frameCount * 1e9 / analyzeNanos));
+        System.out.println(String.format(Locale.US, "full scans %d, window hits %d, misses %d",
+                searchWindowDetector.getFullScanCount(), searchWindowDetector.getHitCount(),
+                searchWindowDetector.getMissCount()));
+        if (referenceFaces != null) {
+            System.out.println(String.format(Locale.US, "recall %.3f (%d of %d reference faces), precision %.3f (%d faces)",
+                    referenceCount == 0 ? 0 : matchedCount / (double) referenceCount, matchedCount, referenceCount,
+                    detectedCount == 0 ? 0 : matchedCount / (double) detectedCount, detectedCount));
+        }
+        if (uncachedAnalyzer != null) {
+            System.out.println(String.format(Locale.US,
+                    "inference cache hit rate %.3f, %d of %d classifier runs skipped, labels agree with an uncached run on %.3f of %d faces",
+                    frameAnalyzer.getInferenceCacheHitRate(), frameAnalyzer.getSkippedInferenceCount(),
+                    frameAnalyzer.getInferenceCount() + frameAnalyzer.getSkippedInferenceCount(),
+                    comparedFaces == 0 ? 0 : agreeingFaces / (double) comparedFaces, comparedFaces));
+        }
+        for (String line : StageProfiler.report()) {
+            System.out.println(line);
+        }
+    }
+
+    private void release() {
+        rgbaImage.release();
+        frame.release();
+        yuvImage.release();
+        uvPlane.release();
+        frameOrientation.release();
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.US, "%.3f", nanos / 1e6);
+    }
+}
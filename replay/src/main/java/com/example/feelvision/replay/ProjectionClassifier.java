@@ -0,0 +1,119 @@
+package com.example.feelvision.replay;
+
+import com.example.feelvision.EmotionClassifier;
+import com.example.feelvision.FrameAnalyzer;
+import com.example.feelvision.TensorSpec;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+// Stand-in for the TFLite model, which has no desktop runtime: the face is reduced to the
+// brightness of a coarse grid of regions relative to the whole face, and a fixed random
+// projection of that pattern scores the classes FrameAnalyzer has a name for, the others
+// get none. Its labels mean nothing, but they follow local changes of the face, so a run
+// with the inference cache can be compared to one without it.
+class ProjectionClassifier implements EmotionClassifier {
+    private static final int GRID = 6;
+
+    private final int inputSize;
+    private final int numClasses;
+    private final int[] namedClasses;
+    private final float[] weights;
+    private final float[] regions = new float[GRID * GRID];
+    private final float[] scores;
+
+    ProjectionClassifier(int inputSize, int numClasses) {
+        this.inputSize = inputSize;
+        this.numClasses = numClasses;
+        int named = 0;
+        int[] classes = new int[numClasses];
+        for (int c = 0; c < numClasses; c++) {
+            if (!FrameAnalyzer.getEmotionName(c).isEmpty()) {
+                classes[named++] = c;
+            }
+        }
+        namedClasses = Arrays.copyOf(classes, named);
+        weights = new float[named * regions.length];
+        scores = new float[numClasses];
+        Random random = new Random(42);
+        // regions differ by a few hundredths, the scale keeps the scores clear of the smoothing margin
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] = (float) random.nextGaussian() * 20;
+        }
+    }
+
+    @Override
+    public boolean resizeInput(int[] inputShape) {
+        return true;
+    }
+
+    @Override
+    public int getInputChannels() {
+        return 3;
+    }
+
+    @Override
+    public TensorSpec getInputSpec() {
+        return TensorSpec.FLOAT32;
+    }
+
+    @Override
+    public TensorSpec getOutputSpec() {
+        return TensorSpec.FLOAT32;
+    }
+
+    @Override
+    public void run(ByteBuffer input, ByteBuffer output) {
+        int faceLength = inputSize * inputSize * 3;
+        int faces = input.capacity() / (4 * faceLength);
+        for (int face = 0; face < faces; face++) {
+            readRegions(input, face * faceLength * 4);
+
+            float max = -Float.MAX_VALUE;
+            for (int n = 0; n < namedClasses.length; n++) {
+                float sum = 0;
+                for (int i = 0; i < regions.length; i++) {
+                    sum += weights[n * regions.length + i] * regions[i];
+                }
+                scores[n] = sum;
+                max = Math.max(max, sum);
+            }
+            float total = 0;
+            for (int n = 0; n < namedClasses.length; n++) {
+                scores[n] = (float) Math.exp(scores[n] - max);
+                total += scores[n];
+            }
+            int outputOffset = face * numClasses * 4;
+            for (int c = 0; c < numClasses; c++) {
+                output.putFloat(outputOffset + c * 4, 0);
+            }
+            for (int n = 0; n < namedClasses.length; n++) {
+                output.putFloat(outputOffset + namedClasses[n] * 4, scores[n] / total);
+            }
+        }
+    }
+
+    // mean brightness of every grid cell minus the mean of the face, in 0-1 units
+    private void readRegions(ByteBuffer input, int offset) {
+        Arrays.fill(regions, 0);
+        for (int y = 0; y < inputSize; y++) {
+            int row = y * GRID / inputSize * GRID;
+            for (int x = 0; x < inputSize; x++) {
+                int index = offset + (y * inputSize + x) * 12;
+                regions[row + x * GRID / inputSize] += input.getFloat(index) + input.getFloat(index + 4)
+                        + input.getFloat(index + 8);
+            }
+        }
+        float cellPixels = 3f * (inputSize / (float) GRID) * (inputSize / (float) GRID);
+        float mean = 0;
+        for (int i = 0; i < regions.length; i++) {
+            regions[i] /= cellPixels;
+            mean += regions[i];
+        }
+        mean /= regions.length;
+        for (int i = 0; i < regions.length; i++) {
+            regions[i] -= mean;
+        }
+    }
+}